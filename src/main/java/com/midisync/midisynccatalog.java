@@ -0,0 +1,101 @@
+package com.midisync;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Index of the MIDI files in the configured folder, by file name and track number.
+ * Building it only lists the folder; nothing is parsed until a track is actually selected.
+ */
+public final class midisynccatalog
+{
+	public static final class Entry
+	{
+		private final File file;
+		private final int trackNumber;
+
+		Entry(File file, int trackNumber)
+		{
+			this.file = file;
+			this.trackNumber = trackNumber;
+		}
+
+		public File getFile() { return file; }
+		public String getName() { return file.getName(); }
+		/** Leading number of "N - name.mid", or -1 if the file isn't numbered. */
+		public int getTrackNumber() { return trackNumber; }
+	}
+
+	/** Track-number order; unnumbered files go last. List.sort is stable, so ties keep their listing order. */
+	private static final Comparator<Entry> TRACK_ORDER = Comparator.comparingInt(e ->
+			e.getTrackNumber() == -1 ? Integer.MAX_VALUE : e.getTrackNumber());
+
+	private final List<Entry> entries;
+
+	private midisynccatalog(List<Entry> entries)
+	{
+		this.entries = entries;
+	}
+
+	public static midisynccatalog empty()
+	{
+		return new midisynccatalog(Collections.emptyList());
+	}
+
+	/** Lists every *.mid file in the folder, sorted by track number. Filtering is left to {@link midisyncplaylist}. */
+	public static midisynccatalog scan(File folder)
+	{
+		if (folder == null || !folder.exists() || !folder.isDirectory()) return empty();
+
+		File[] midiFiles = folder.listFiles((dir, name) -> name.toLowerCase().endsWith(".mid"));
+		if (midiFiles == null || midiFiles.length == 0) return empty();
+
+		List<Entry> entries = new ArrayList<>(midiFiles.length);
+		for (File f : midiFiles)
+			entries.add(new Entry(f, parseTrackNumber(f.getName())));
+		entries.sort(TRACK_ORDER);
+		return new midisynccatalog(entries);
+	}
+
+	/** Copy of this catalog with one more entry, inserted in track order (after entries with the same number). */
+	public midisynccatalog withEntry(Entry entry)
+	{
+		List<Entry> copy = new ArrayList<>(entries.size() + 1);
+		copy.addAll(entries);
+		int at = 0;
+		while (at < copy.size() && TRACK_ORDER.compare(copy.get(at), entry) <= 0) at++;
+		copy.add(at, entry);
+		return new midisynccatalog(copy);
+	}
+
+	/** Track number from a "N - name.mid" file name, or -1. */
+	public static int parseTrackNumber(String fileName)
+	{
+		try { return Integer.parseInt(fileName.split(" - ")[0]); }
+		catch (NumberFormatException e) { return -1; }
+	}
+
+	public int size() { return entries.size(); }
+
+	public boolean isEmpty() { return entries.isEmpty(); }
+
+	public Entry get(int index) { return entries.get(index); }
+
+	/** The MIDI file of every entry. */
+	public List<File> files()
+	{
+		List<File> files = new ArrayList<>(entries.size());
+		for (Entry e : entries) files.add(e.getFile());
+		return files;
+	}
+
+	public int indexOfName(String name)
+	{
+		for (int i = 0; i < entries.size(); i++)
+			if (entries.get(i).getName().equals(name)) return i;
+		return -1;
+	}
+}
@@ -0,0 +1,159 @@
+package com.midisync;
+
+import java.util.Arrays;
+
+/**
+ * Output channel for every note of one track, worked out once when the track is compiled instead of on
+ * each instrument's first note. Percussion always plays on channel 9 with the first kit the track asks for.
+ *
+ * Melodic instruments take a channel each in order of first use while there are unused ones. Once every channel
+ * has an instrument, a track with more instruments time-shares them: from the compiled note times, an instrument
+ * moves onto the channel whose previous instrument finished longest ago, and the program switch is scheduled
+ * with its first note there, in the gap. When every channel is still sounding, that is the one freeing up soonest.
+ * A plan is made for a given channel count, so a synth with a second port (channels 16-31) gets fewer shares.
+ *
+ * The plugin selects each channel's first program before the track's first tick, so scheduling a note is an
+ * array lookup plus, for the notes flagged by {@link #switchesProgram}, one timed program change.
+ */
+public final class midisyncchannelplan
+{
+	public static final int PERCUSSION_CHANNEL = 9;
+	public static final int MAX_CHANNELS = 32;
+
+	private final byte[] channelOf; // per note
+	private final long[] switches; // per note: select the note's program on its channel first
+	private final int[] switchNotes; // the notes flagged in switches, ascending
+	private final byte[] switchPrograms; // program each of those switches to
+	private final int[] programOfChannel = new int[MAX_CHANNELS]; // OSRS instrument set up front, -1 if unused
+	private final int kitProgram; // -1 if the track has no percussion
+	private final int channelCount;
+	private final int switchCount;
+
+	private midisyncchannelplan(midisynctrack track, int maxChannels)
+	{
+		int n = track.size();
+		channelOf = new byte[n];
+		switches = new long[(n + 63) >>> 6];
+		Arrays.fill(programOfChannel, -1);
+
+		int[] busyUntil = new int[maxChannels]; // raw tick the channel's last note ends
+		int[] current = new int[maxChannels]; // program the channel is set to, -1 while unused
+		int[] home = new int[128]; // channel an instrument last played on, -1 before its first note
+		Arrays.fill(current, -1);
+		Arrays.fill(home, -1);
+
+		int kit = -1;
+		int used = 0;
+		int switched = 0;
+		int[] switchAt = new int[16];
+		byte[] switchTo = new byte[16];
+		for (int i = 0; i < n; i++)
+		{
+			int program = track.program(i);
+			if (track.channel(i) == PERCUSSION_CHANNEL)
+			{
+				if (kit == -1) kit = program;
+				channelOf[i] = PERCUSSION_CHANNEL;
+				continue;
+			}
+
+			int start = track.rawStart(i);
+			int ch = home[program];
+			if (ch == -1 || (current[ch] != program && busyUntil[ch] > start))
+			{
+				ch = pick(busyUntil, current, maxChannels);
+			}
+
+			if (current[ch] == -1)
+			{
+				programOfChannel[ch] = program;
+				used = Math.max(used, ch + 1);
+			}
+			else if (current[ch] != program)
+			{
+				switches[i >>> 6] |= 1L << i;
+				if (switched == switchAt.length)
+				{
+					switchAt = Arrays.copyOf(switchAt, switched * 2);
+					switchTo = Arrays.copyOf(switchTo, switched * 2);
+				}
+				switchAt[switched] = i;
+				switchTo[switched] = (byte) program;
+				switched++;
+			}
+			current[ch] = program;
+			home[program] = ch;
+			busyUntil[ch] = Math.max(busyUntil[ch], track.rawEnd(i));
+			channelOf[i] = (byte) ch;
+		}
+		kitProgram = kit;
+		channelCount = Math.max(used, kit >= 0 ? PERCUSSION_CHANNEL + 1 : 0);
+		switchCount = switched;
+		switchNotes = Arrays.copyOf(switchAt, switched);
+		switchPrograms = Arrays.copyOf(switchTo, switched);
+	}
+
+	/** Plan for a synth with the given number of channels (16, or {@link #MAX_CHANNELS} with a second port). */
+	static midisyncchannelplan of(midisynctrack track, int channels)
+	{
+		return new midisyncchannelplan(track, Math.max(PERCUSSION_CHANNEL + 1, Math.min(MAX_CHANNELS, channels)));
+	}
+
+	/** Number of distinct programs on the melodic channels, i.e. channels needed to give each its own. */
+	static int melodicInstruments(midisynctrack track)
+	{
+		int count = 0;
+		for (int program = 0; program < 128; program++)
+			if (track.usesProgram(program, false)) count++;
+		return count;
+	}
+
+	/** Output channel of note i. */
+	public int channel(int i) { return channelOf[i]; }
+
+	/** Whether the channel has to be switched to note i's program just before it plays. */
+	public boolean switchesProgram(int i) { return (switches[i >>> 6] & 1L << i) != 0; }
+
+	/** OSRS instrument to select on a melodic channel before the track starts, or -1 if the channel is unused. */
+	public int getProgram(int channel)
+	{
+		return channel >= 0 && channel < MAX_CHANNELS && channel != PERCUSSION_CHANNEL ? programOfChannel[channel] : -1;
+	}
+
+	/**
+	 * OSRS instrument a melodic channel is set to by the time note i is due: the program of the last switch on it
+	 * before that note, else its first one. Selects the right program when playback resumes in the middle of a track.
+	 */
+	public int getProgram(int channel, int noteIndex)
+	{
+		int k = Arrays.binarySearch(switchNotes, noteIndex);
+		for (k = k >= 0 ? k - 1 : -k - 2; k >= 0; k--)
+			if (channelOf[switchNotes[k]] == channel) return switchPrograms[k];
+		return getProgram(channel);
+	}
+
+	/** Drum kit to select on channel 9, or -1 if the track has no percussion. */
+	public int getKitProgram() { return kitProgram; }
+
+	/** Highest channel used plus one. */
+	public int getChannelCount() { return channelCount; }
+
+	/** Program changes the track needs while playing. */
+	public int getSwitchCount() { return switchCount; }
+
+	/**
+	 * Channel for an instrument that can't stay where it was: the first one never used, else the one whose last
+	 * note ends first, which is silent longest by the note's start or, if all are sounding, frees up soonest.
+	 */
+	private static int pick(int[] busyUntil, int[] current, int maxChannels)
+	{
+		int soonest = -1;
+		for (int ch = 0; ch < maxChannels; ch++)
+		{
+			if (ch == PERCUSSION_CHANNEL) continue;
+			if (current[ch] == -1) return ch;
+			if (soonest == -1 || busyUntil[ch] < busyUntil[soonest]) soonest = ch;
+		}
+		return soonest;
+	}
+}
@@ -2,9 +2,11 @@ package com.midisync;
 
 import net.runelite.client.config.*;
 
-@ConfigGroup("MidiSync")
+@ConfigGroup(midisyncconfig.GROUP)
 public interface midisyncconfig extends Config
 {
+	String GROUP = "MidiSync";
+
 	@ConfigSection(
 			name = "MidiSync",
 			description = "Sync the osrs midi tracks to the tick rate",
@@ -26,8 +28,8 @@ public interface midisyncconfig extends Config
 	}
 	@ConfigItem(
 			keyName = "bpm",
-			name = "BPM",
-			description = "Set playback speed (e.g. 50 or 100 BPM)",
+			name = "Speed",
+			description = "Playback speed in percent of the file's own tempo (100 plays it as written)",
 			section = "MidiSync",
 			position = 1
 	)
@@ -122,6 +124,17 @@ public interface midisyncconfig extends Config
 	{
 		return false;
 	}
+
+	@ConfigItem(
+			keyName = "renderCurrentTrack",
+			name = "Render Track to WAV",
+			description = "Render the current track offline to .runelite/midisync/renders. Needs the JVM option --add-opens java.desktop/com.sun.media.sound=ALL-UNNAMED on Java 16+.",
+			section = midisync_section
+	)
+	default boolean renderCurrentTrack()
+	{
+		return false;
+	}
 //	@ConfigItem(
 //			keyName = "addCurrentTrackToWhitelist",
 //			name = "Add Current Track to Whitelist",
@@ -160,6 +173,105 @@ public interface midisyncconfig extends Config
 	)
 	default int tickDurationMs() { return 600; }
 
+	@ConfigItem(
+			keyName = "lookaheadTicks",
+			name = "Lookahead Ticks",
+			description = "Queue notes this many game ticks before their tick arrives, on the measured tick cadence, so notes on the beat aren't late by the client's event handling. 0 queues each tick's notes when it arrives.",
+			section = midisync_section
+	)
+	@Range(min = 0, max = 2)
+	default int lookaheadTicks() { return 1; }
+
+	@ConfigItem(
+			keyName = "trackCacheSize",
+			name = "Cached Tracks",
+			description = "How many parsed MIDI tracks to keep in memory. The current and upcoming tracks are always kept.",
+			section = midisync_section
+	)
+	@Range(min = 1, max = 64)
+	default int trackCacheSize() { return 8; }
+
+	@ConfigItem(
+			keyName = "preloadTracks",
+			name = "Preload All Tracks",
+			description = "Parse every track in the folder in the background at startup instead of on demand. Uses more memory.",
+			section = midisync_section
+	)
+	default boolean preloadTracks() { return false; }
+
+	@ConfigItem(
+			keyName = "timestampedPlayback",
+			name = "Timestamped Playback",
+			description = "Queue each tick's notes inside the synthesizer with timestamps instead of triggering them from a timer thread. Tighter timing with the built-in synthesizer.",
+			section = midisync_section
+	)
+	default boolean timestampedPlayback() { return false; }
+
+	@ConfigItem(
+			keyName = "prerenderedPlayback",
+			name = "Pre-rendered Playback",
+			description = "Render each track once in the background and stream the audio instead of synthesizing it live. Saves CPU on busy tracks; plays live until the render is ready. Needs the same JVM option as Render Track to WAV.",
+			section = midisync_section
+	)
+	default boolean prerenderedPlayback() { return false; }
+
+	enum Interpolation
+	{
+		POINT, LINEAR, CUBIC, SINC
+	}
+
+	@ConfigItem(
+			keyName = "synthLatencyMs",
+			name = "Synth Latency (ms)",
+			description = "Audio buffer of the synthesizer. Lower is tighter but may crackle on slow machines.",
+			section = midisync_section
+	)
+	@Range(min = 10, max = 500)
+	default int synthLatencyMs() { return 120; }
+
+	@ConfigItem(
+			keyName = "synthMaxPolyphony",
+			name = "Max Voices",
+			description = "Most voices the synthesizer plays at once. Fewer voices use less CPU.",
+			section = midisync_section
+	)
+	@Range(min = 8, max = 1024)
+	default int synthMaxPolyphony() { return 64; }
+
+	@ConfigItem(
+			keyName = "synthSampleRate",
+			name = "Sample Rate (Hz)",
+			description = "Output sample rate of the synthesizer. Lower rates use less CPU.",
+			section = midisync_section
+	)
+	@Range(min = 11025, max = 96000)
+	default int synthSampleRate() { return 44100; }
+
+	@ConfigItem(
+			keyName = "synthInterpolation",
+			name = "Interpolation",
+			description = "Sample interpolation of the synthesizer, from cheapest (Point) to best quality (Sinc).",
+			section = midisync_section
+	)
+	default Interpolation synthInterpolation() { return Interpolation.LINEAR; }
+
+	@ConfigItem(
+			keyName = "synthLargeMode",
+			name = "Large SoundFont Mode",
+			description = "Stream SoundFont samples from disk instead of holding them in memory.",
+			section = midisync_section
+	)
+	default boolean synthLargeMode() { return false; }
+
+	@ConfigItem(
+			keyName = "voiceBudget",
+			name = "Voice Budget",
+			description = "Most notes MIDI Sync lets sound at once. Over budget, the quietest and oldest melodic notes are cut first; drums are never cut.",
+			section = midisync_section
+	)
+	@Range(min = 1, max = 256)
+	default int voiceBudget() { return 48; }
+
 	@ConfigItem(
 			keyName = "useWhitelist",
 			name = "Use Whitelist",
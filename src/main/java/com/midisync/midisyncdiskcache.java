@@ -0,0 +1,167 @@
+package com.midisync;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Compiled tracks persisted as flat binary files, so a restart doesn't have to run javax.sound.midi again.
+ * One file per MIDI path; the header records the source size and mtime, and a mismatch on either is treated
+ * as a miss. Timing settings aren't part of an entry: they are applied when a view of the track is derived.
+ * Files are read in one FileChannel read into a heap buffer and copied straight into the track's int columns.
+ * They are deliberately not memory-mapped: a mapping stays open until it is garbage collected, and Windows
+ * refuses to replace a mapped file. Every length in the header is checked against the bytes left, so a
+ * truncated or corrupt file is a miss rather than a huge allocation.
+ */
+@Slf4j
+public final class midisyncdiskcache
+{
+	private static final int MAGIC = 0x4D53594E; // "MSYN"
+	private static final int VERSION = 3; // 2: tempo map instead of one MIDI-ticks-per-game-tick ratio; 3: no timing settings
+
+	private final File directory;
+
+	public midisyncdiskcache(File directory)
+	{
+		this.directory = directory;
+	}
+
+	/** Cached track for the MIDI file, or null on a miss or unreadable entry. */
+	public midisynctrack load(File midiFile)
+	{
+		File cacheFile = cacheFileFor(midiFile);
+		if (!cacheFile.isFile()) return null;
+
+		try (FileChannel channel = FileChannel.open(cacheFile.toPath(), StandardOpenOption.READ))
+		{
+			if (channel.size() > Integer.MAX_VALUE) return null;
+			ByteBuffer buf = ByteBuffer.allocate((int) channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+			while (buf.hasRemaining() && channel.read(buf) >= 0) { }
+			buf.flip();
+
+			if (buf.getInt() != MAGIC || buf.getInt() != VERSION) return null;
+
+			int pathLength = length(buf, 1);
+			if (pathLength < 0) return null;
+			byte[] path = new byte[pathLength];
+			buf.get(path);
+			if (!new String(path, StandardCharsets.UTF_8).equals(midiFile.getAbsolutePath())
+					|| buf.getLong() != midiFile.length()
+					|| buf.getLong() != midiFile.lastModified())
+				return null;
+
+			int segments = length(buf, 4 + 8);
+			if (segments < 0) return null;
+			int[] tempoTicks = new int[segments];
+			double[] microsPerTick = new double[segments];
+			for (int i = 0; i < segments; i++)
+			{
+				tempoTicks[i] = buf.getInt();
+				microsPerTick[i] = buf.getDouble();
+			}
+			int count = length(buf, 3 * 4);
+			if (count < 0) return null;
+
+			IntBuffer ints = buf.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+			int[] packed = new int[count];
+			int[] rawStart = new int[count];
+			int[] rawEnd = new int[count];
+			ints.get(packed).get(rawStart).get(rawEnd);
+
+			return midisynctrack.fromColumns(packed, rawStart, rawEnd,
+					midisynctempomap.fromSegments(tempoTicks, microsPerTick));
+		}
+		catch (IOException | RuntimeException e)
+		{
+			log.debug("Ignoring unreadable track cache {}: {}", cacheFile.getName(), e.toString());
+			return null;
+		}
+	}
+
+	/** Write a compiled track; replaces the previous entry for the same MIDI path atomically. */
+	public void store(File midiFile, midisynctrack track)
+	{
+		byte[] path = midiFile.getAbsolutePath().getBytes(StandardCharsets.UTF_8);
+		int count = track.size();
+		midisynctempomap tempo = track.getTempoMap();
+		int segments = tempo.segments();
+
+		ByteBuffer buf = ByteBuffer.allocate(3 * 4 + path.length + 8 * 2 + 4 + segments * 12 + 4 + count * 3 * 4)
+				.order(ByteOrder.LITTLE_ENDIAN);
+		buf.putInt(MAGIC).putInt(VERSION);
+		buf.putInt(path.length).put(path);
+		buf.putLong(midiFile.length()).putLong(midiFile.lastModified());
+		buf.putInt(segments);
+		for (int i = 0; i < segments; i++) buf.putInt(tempo.segmentTick(i)).putDouble(tempo.segmentMicrosPerTick(i));
+		buf.putInt(count);
+		for (int i = 0; i < count; i++) buf.putInt(track.packed(i));
+		for (int i = 0; i < count; i++) buf.putInt(track.rawStart(i));
+		for (int i = 0; i < count; i++) buf.putInt(track.rawEnd(i));
+		buf.flip();
+
+		try
+		{
+			Files.createDirectories(directory.toPath());
+			// Write beside the target and move into place, so readers never see a half-written file
+			Path tmp = Files.createTempFile(directory.toPath(), "track", ".tmp");
+			try
+			{
+				try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE))
+				{
+					while (buf.hasRemaining()) channel.write(buf);
+				}
+				Files.move(tmp, cacheFileFor(midiFile).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			}
+			finally
+			{
+				Files.deleteIfExists(tmp);
+			}
+		}
+		catch (IOException e)
+		{
+			log.warn("Failed to write track cache for {}: {}", midiFile.getName(), e.toString());
+		}
+	}
+
+	/** Delete the entries of every MIDI file that isn't in the given set, e.g. files removed from the folder. */
+	public void prune(Collection<File> midiFiles)
+	{
+		Set<String> keep = new HashSet<>();
+		for (File midiFile : midiFiles) keep.add(cacheFileFor(midiFile).getName());
+
+		File[] files = directory.listFiles((dir, name) -> name.endsWith(".track"));
+		if (files == null) return;
+		for (File f : files)
+		{
+			if (!keep.contains(f.getName()) && !f.delete())
+				log.debug("Failed to delete stale track cache {}", f.getName());
+		}
+	}
+
+	/** Next int of the header as a count of entries of the given size, or -1 if the rest of the file can't hold them. */
+	private static int length(ByteBuffer buf, int bytesEach)
+	{
+		int count = buf.getInt();
+		return count >= 0 && count <= buf.remaining() / bytesEach ? count : -1;
+	}
+
+	private File cacheFileFor(File midiFile)
+	{
+		String id = UUID.nameUUIDFromBytes(midiFile.getAbsolutePath().getBytes(StandardCharsets.UTF_8)).toString();
+		return new File(directory, id + ".track");
+	}
+}
@@ -0,0 +1,317 @@
+package com.midisync;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Single audio-clock thread that plays note on/off and program change events at System.nanoTime deadlines.
+ *
+ * The client thread stages a tick's events into a primitive buffer (no locking, no allocation) and
+ * flushes them in one go into a min-heap ordered by deadline. The dispatcher parks until shortly before
+ * the next deadline and spins the rest of the way, which gives sub-millisecond onsets without the
+ * per-note task objects of a ScheduledExecutorService.
+ */
+public final class midisyncdispatcher
+{
+	// Event kinds, in the order events due at the same instant are played
+	public static final int NOTE_OFF = 0;
+	public static final int PROGRAM = 1;
+	public static final int NOTE_ON = 2;
+
+	/** Receives due events; for {@link #PROGRAM} the key is the OSRS instrument and the velocity is 0. */
+	public interface Sink
+	{
+		void send(int kind, int channel, int key, int velocity);
+	}
+
+	/** Receives events taken off the queue ahead of time, with the deadline they were due at. */
+	public interface TimedSink
+	{
+		void send(long deadlineNanos, int kind, int channel, int key, int velocity);
+	}
+
+	/** Park until this close to a deadline, then spin; covers the coarse timer granularity of parkNanos. */
+	private static final long SPIN_NS = 2_000_000L;
+
+	// payload = velocity | key << 7 | channel << 14 | kind << 19
+	private static final int KIND_SHIFT = 19;
+
+	private final Sink sink;
+
+	// Min-heap on (deadline, note-off before note-on), guarded by this
+	private long[] heapDeadlines = new long[1024];
+	private int[] heapPayloads = new int[1024];
+	private int heapSize;
+
+	// Staging buffer, only touched by the producer thread
+	private long[] stagedDeadlines = new long[256];
+	private int[] stagedPayloads = new int[256];
+	private int stagedSize;
+	private boolean unwoken; // staged events were moved onto the heap by drainUntil without waking the thread
+
+	// Scratch for drainUntil, only touched by the producer thread
+	private long[] drainedDeadlines = new long[256];
+	private int[] drainedPayloads = new int[256];
+
+	private volatile boolean running;
+	private Thread thread;
+
+	public midisyncdispatcher(Sink sink)
+	{
+		this.sink = sink;
+	}
+
+	public void start()
+	{
+		if (thread != null) return;
+		running = true;
+		thread = new Thread(this::run, "midisync-dispatcher");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MAX_PRIORITY);
+		thread.start();
+	}
+
+	public void stop()
+	{
+		running = false;
+		if (thread != null)
+		{
+			LockSupport.unpark(thread);
+			thread = null;
+		}
+		clear();
+	}
+
+	/** Stage a note on at the given nanoTime deadline. Call {@link #flush} once the tick's events are staged. */
+	public void noteOn(long deadlineNanos, int channel, int key, int velocity)
+	{
+		stage(deadlineNanos, NOTE_ON << KIND_SHIFT | (channel & 0x1F) << 14 | (key & 0x7F) << 7 | (velocity & 0x7F));
+	}
+
+	public void noteOff(long deadlineNanos, int channel, int key)
+	{
+		stage(deadlineNanos, NOTE_OFF << KIND_SHIFT | (channel & 0x1F) << 14 | (key & 0x7F) << 7);
+	}
+
+	/** Stage a switch of the channel to an OSRS instrument; plays after note-offs and before note-ons due at the same instant. */
+	public void programChange(long deadlineNanos, int channel, int osrsInstrument)
+	{
+		stage(deadlineNanos, PROGRAM << KIND_SHIFT | (channel & 0x1F) << 14 | (osrsInstrument & 0x7F) << 7);
+	}
+
+	/** Hand the staged events to the dispatcher thread. */
+	public void flush()
+	{
+		if (stagedSize > 0)
+		{
+			synchronized (this)
+			{
+				pushStaged();
+			}
+		}
+		else if (!unwoken) return;
+		unwoken = false;
+
+		Thread t = thread;
+		if (t != null) LockSupport.unpark(t);
+	}
+
+	/** Drop every pending event (e.g. on a track change, after all notes were turned off). */
+	public void clear()
+	{
+		stagedSize = 0;
+		synchronized (this)
+		{
+			heapSize = 0;
+		}
+	}
+
+	public synchronized int pending() { return heapSize; }
+
+	/**
+	 * Move every queued event due at or after the given deadline by delta, e.g. notes committed ahead of a
+	 * game tick on its predicted start once the tick's actual start is known. Events moved into the past play at once.
+	 */
+	public void shift(long fromNanos, long deltaNanos)
+	{
+		if (deltaNanos == 0) return;
+
+		synchronized (this)
+		{
+			int moved = 0;
+			for (int i = 0; i < heapSize; i++)
+			{
+				if (heapDeadlines[i] >= fromNanos)
+				{
+					heapDeadlines[i] += deltaNanos;
+					moved++;
+				}
+			}
+			if (moved == 0) return;
+			for (int i = (heapSize >>> 1) - 1; i >= 0; i--)
+				siftDown(i, heapDeadlines[i], heapPayloads[i]);
+		}
+
+		Thread t = thread;
+		if (t != null) LockSupport.unpark(t);
+	}
+
+	/**
+	 * Take every event due up to and including the limit off the queue, staged ones too, in dispatch order, and
+	 * hand it to the caller instead of the dispatcher thread (e.g. to queue it inside the synthesizer with a
+	 * timestamp). Call it before {@link #flush}, so the thread never gets the chance to play part of the batch;
+	 * the flush then wakes the thread for what is left. Anything the caller doesn't drain in time is still played
+	 * by the dispatcher thread.
+	 */
+	public void drainUntil(long limitNanos, TimedSink timedSink)
+	{
+		int count = 0;
+		synchronized (this)
+		{
+			if (stagedSize > 0)
+			{
+				pushStaged();
+				unwoken = true;
+			}
+			while (heapSize > 0 && heapDeadlines[0] <= limitNanos)
+			{
+				if (count == drainedDeadlines.length)
+				{
+					drainedDeadlines = Arrays.copyOf(drainedDeadlines, count * 2);
+					drainedPayloads = Arrays.copyOf(drainedPayloads, count * 2);
+				}
+				drainedDeadlines[count] = heapDeadlines[0];
+				drainedPayloads[count] = heapPayloads[0];
+				count++;
+				pop();
+			}
+		}
+
+		for (int i = 0; i < count; i++)
+		{
+			int payload = drainedPayloads[i];
+			timedSink.send(drainedDeadlines[i], payload >>> KIND_SHIFT,
+					(payload >>> 14) & 0x1F, (payload >>> 7) & 0x7F, payload & 0x7F);
+		}
+	}
+
+	/** Move the staged events onto the heap; the caller holds the lock. */
+	private void pushStaged()
+	{
+		for (int i = 0; i < stagedSize; i++)
+			push(stagedDeadlines[i], stagedPayloads[i]);
+		stagedSize = 0;
+	}
+
+	private void stage(long deadline, int payload)
+	{
+		if (stagedSize == stagedDeadlines.length)
+		{
+			stagedDeadlines = Arrays.copyOf(stagedDeadlines, stagedSize * 2);
+			stagedPayloads = Arrays.copyOf(stagedPayloads, stagedSize * 2);
+		}
+		stagedDeadlines[stagedSize] = deadline;
+		stagedPayloads[stagedSize] = payload;
+		stagedSize++;
+	}
+
+	private void run()
+	{
+		while (running)
+		{
+			long next;
+			synchronized (this)
+			{
+				next = heapSize > 0 ? heapDeadlines[0] : Long.MAX_VALUE;
+			}
+
+			if (next == Long.MAX_VALUE)
+			{
+				LockSupport.park(this);
+				continue;
+			}
+
+			long wait = next - System.nanoTime();
+			if (wait > SPIN_NS)
+			{
+				// Woken early by flush() if an earlier event arrives
+				LockSupport.parkNanos(this, wait - SPIN_NS);
+				continue;
+			}
+
+			while (System.nanoTime() < next)
+				Thread.onSpinWait();
+
+			dispatchDue();
+		}
+	}
+
+	private void dispatchDue()
+	{
+		long now = System.nanoTime();
+		while (true)
+		{
+			int payload;
+			synchronized (this)
+			{
+				if (heapSize == 0 || heapDeadlines[0] > now) return;
+				payload = heapPayloads[0];
+				pop();
+			}
+			sink.send(payload >>> KIND_SHIFT, (payload >>> 14) & 0x1F, (payload >>> 7) & 0x7F, payload & 0x7F);
+		}
+	}
+
+	// ====== Heap ======
+
+	private static boolean before(long d1, int p1, long d2, int p2)
+	{
+		if (d1 != d2) return d1 < d2;
+		// Same instant: release, then switch program, then retrigger, so a repeated key isn't cut off
+		return p1 >>> KIND_SHIFT < p2 >>> KIND_SHIFT;
+	}
+
+	private void push(long deadline, int payload)
+	{
+		if (heapSize == heapDeadlines.length)
+		{
+			heapDeadlines = Arrays.copyOf(heapDeadlines, heapSize * 2);
+			heapPayloads = Arrays.copyOf(heapPayloads, heapSize * 2);
+		}
+		int i = heapSize++;
+		while (i > 0)
+		{
+			int parent = (i - 1) >>> 1;
+			if (!before(deadline, payload, heapDeadlines[parent], heapPayloads[parent])) break;
+			heapDeadlines[i] = heapDeadlines[parent];
+			heapPayloads[i] = heapPayloads[parent];
+			i = parent;
+		}
+		heapDeadlines[i] = deadline;
+		heapPayloads[i] = payload;
+	}
+
+	private void pop()
+	{
+		heapSize--;
+		siftDown(0, heapDeadlines[heapSize], heapPayloads[heapSize]);
+	}
+
+	/** Place the event at slot i or below, moving earlier children up. */
+	private void siftDown(int i, long deadline, int payload)
+	{
+		while (true)
+		{
+			int child = 2 * i + 1;
+			if (child >= heapSize) break;
+			if (child + 1 < heapSize && before(heapDeadlines[child + 1], heapPayloads[child + 1], heapDeadlines[child], heapPayloads[child]))
+				child++;
+			if (!before(heapDeadlines[child], heapPayloads[child], deadline, payload)) break;
+			heapDeadlines[i] = heapDeadlines[child];
+			heapPayloads[i] = heapPayloads[child];
+			i = child;
+		}
+		heapDeadlines[i] = deadline;
+		heapPayloads[i] = payload;
+	}
+}
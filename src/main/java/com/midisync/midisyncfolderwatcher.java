@@ -0,0 +1,117 @@
+package com.midisync;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the MIDI folder and reports which .mid files were added, removed or rewritten.
+ * Events are debounced: a batch is only delivered once the folder has been quiet for a while,
+ * so copying a whole album in produces one update instead of hundreds.
+ */
+@Slf4j
+public final class midisyncfolderwatcher
+{
+	public interface Listener
+	{
+		/** Names of changed .mid files; overflow means events were lost and anything may have changed. */
+		void onFolderChanged(Set<String> changedNames, boolean overflow);
+	}
+
+	private static final long DEBOUNCE_MS = 1000;
+
+	private final Path folder;
+	private final Listener listener;
+	private WatchService watchService;
+	private Thread thread;
+
+	public midisyncfolderwatcher(Path folder, Listener listener)
+	{
+		this.folder = folder;
+		this.listener = listener;
+	}
+
+	public void start() throws IOException
+	{
+		watchService = folder.getFileSystem().newWatchService();
+		folder.register(watchService,
+				StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_DELETE,
+				StandardWatchEventKinds.ENTRY_MODIFY);
+
+		thread = new Thread(this::run, "midisync-watcher");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public void stop()
+	{
+		if (thread != null) thread.interrupt();
+		try
+		{
+			if (watchService != null) watchService.close();
+		}
+		catch (IOException ignored) {}
+		thread = null;
+		watchService = null;
+	}
+
+	private void run()
+	{
+		WatchService service = watchService;
+		try
+		{
+			while (!Thread.currentThread().isInterrupted())
+			{
+				WatchKey key = service.take();
+				Set<String> changed = new HashSet<>();
+				boolean overflow = false;
+
+				// Keep draining until nothing has happened for the debounce window
+				while (key != null)
+				{
+					overflow |= collect(key, changed);
+					key.reset();
+					key = service.poll(DEBOUNCE_MS, TimeUnit.MILLISECONDS);
+				}
+
+				if (overflow || !changed.isEmpty())
+					listener.onFolderChanged(changed, overflow);
+			}
+		}
+		catch (InterruptedException | ClosedWatchServiceException e)
+		{
+			// stopped
+		}
+		catch (RuntimeException e)
+		{
+			log.warn("MIDI folder watcher stopped", e);
+		}
+	}
+
+	private static boolean collect(WatchKey key, Set<String> changed)
+	{
+		boolean overflow = false;
+		for (WatchEvent<?> event : key.pollEvents())
+		{
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW)
+			{
+				overflow = true;
+				continue;
+			}
+			String name = event.context().toString();
+			if (name.toLowerCase().endsWith(".mid"))
+				changed.add(name);
+		}
+		return overflow;
+	}
+}
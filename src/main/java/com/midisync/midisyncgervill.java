@@ -0,0 +1,98 @@
+package com.midisync;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.sound.midi.Synthesizer;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.SourceDataLine;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Map;
+
+/**
+ * Reflective access to Gervill's com.sun.media.sound.AudioSynthesizer, which javax.sound.midi doesn't expose:
+ * opening the synth with engine settings, and opening it as an offline stream.
+ *
+ * On Java 16+ the package has to be opened to the plugin (--add-opens java.desktop/com.sun.media.sound=ALL-UNNAMED).
+ * Without it {@link #isAvailable()} is false and callers fall back to the plain javax.sound.midi API.
+ */
+@Slf4j
+final class midisyncgervill
+{
+	static final String ADD_OPENS = "--add-opens java.desktop/com.sun.media.sound=ALL-UNNAMED";
+
+	private static final Class<?> AUDIO_SYNTHESIZER;
+	private static final Method OPEN;
+	private static final Method OPEN_STREAM;
+
+	static
+	{
+		Class<?> type = null;
+		Method open = null;
+		Method openStream = null;
+		try
+		{
+			type = Class.forName("com.sun.media.sound.AudioSynthesizer");
+			open = type.getMethod("open", SourceDataLine.class, Map.class);
+			openStream = type.getMethod("openStream", AudioFormat.class, Map.class);
+			boolean accessible = type.getModule().isExported(type.getPackageName(), midisyncgervill.class.getModule())
+					|| (open.trySetAccessible() && openStream.trySetAccessible());
+			if (!accessible)
+			{
+				log.debug("Gervill engine API unavailable: com.sun.media.sound is not open to the plugin");
+				open = null;
+				openStream = null;
+			}
+		}
+		catch (ReflectiveOperationException | RuntimeException e)
+		{
+			log.debug("Gervill engine API unavailable: {}", e.toString());
+			open = null;
+			openStream = null;
+		}
+		AUDIO_SYNTHESIZER = type;
+		OPEN = open;
+		OPEN_STREAM = openStream;
+	}
+
+	private midisyncgervill() { }
+
+	static boolean isAvailable() { return OPEN != null; }
+
+	/** Whether the synth is a Gervill AudioSynthesizer we can drive through this class. */
+	static boolean supports(Synthesizer synth)
+	{
+		return isAvailable() && AUDIO_SYNTHESIZER.isInstance(synth);
+	}
+
+	/**
+	 * Open the synth on the given (not yet opened) line with Gervill engine settings
+	 * ("latency", "max polyphony", "interpolation", "large mode", ...). The line's format sets the sample rate.
+	 */
+	static void open(Synthesizer synth, SourceDataLine line, Map<String, Object> info) throws Exception
+	{
+		invoke(OPEN, synth, line, info);
+	}
+
+	/** Open the synth without an audio device; rendering happens as the returned stream is read. */
+	static AudioInputStream openStream(Synthesizer synth, AudioFormat format, Map<String, Object> info) throws Exception
+	{
+		return (AudioInputStream) invoke(OPEN_STREAM, synth, format, info);
+	}
+
+	private static Object invoke(Method method, Synthesizer synth, Object first, Map<String, Object> info) throws Exception
+	{
+		if (!supports(synth))
+			throw new IllegalStateException("Gervill engine API needs " + ADD_OPENS + " and the built-in synthesizer");
+		try
+		{
+			return method.invoke(synth, first, info);
+		}
+		catch (InvocationTargetException e)
+		{
+			Throwable cause = e.getCause();
+			throw cause instanceof Exception ? (Exception) cause : e;
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package com.midisync;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Eagerly parses every track in the rotation on a bounded fork-join pool.
+ * Each file is independent, so parsing fans out across the pool; results are gathered back in playlist
+ * (track number) order so the report and cache fill are deterministic regardless of which worker finished first.
+ */
+public final class midisynclibraryloader
+{
+	private static final int MAX_THREADS = 4;
+
+	private final ForkJoinPool pool;
+
+	public midisynclibraryloader()
+	{
+		// Leave a core for the client; parsing is CPU-bound so more threads than cores doesn't help
+		int threads = Math.max(1, Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors() - 1));
+		pool = new ForkJoinPool(threads, p -> {
+			ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+			t.setName("midisync-loader-" + t.getPoolIndex());
+			t.setDaemon(true);
+			t.setPriority(Thread.MIN_PRIORITY);
+			return t;
+		}, null, false);
+	}
+
+	/**
+	 * Parse every playlist entry not already in the cache. Loaded timelines go into the cache as they finish,
+	 * unless their file was invalidated meanwhile; the returned future completes with the report once the
+	 * whole playlist is done.
+	 */
+	public CompletableFuture<midisyncloadreport> load(midisyncplaylist tracks, midisynctrackcache cache,
+			midisyncprefetcher.Loader loader)
+	{
+		return CompletableFuture.supplyAsync(() -> {
+			long start = System.nanoTime();
+			AtomicInteger cached = new AtomicInteger();
+
+			// Parallel stream runs inside our pool because it is started from one of its workers.
+			// Each slot holds the failure for that entry, or null if it loaded (or was already cached).
+			List<midisyncloadreport.Failure> results = IntStream.range(0, tracks.size())
+					.parallel()
+					.mapToObj(i -> {
+						midisynccatalog.Entry entry = tracks.get(i);
+						if (cache.contains(entry.getName()))
+						{
+							cached.incrementAndGet();
+							return null;
+						}
+						long version = cache.version(entry.getName());
+						try
+						{
+							cache.put(entry.getName(), loader.load(entry), version);
+							return null;
+						}
+						catch (Exception e)
+						{
+							return new midisyncloadreport.Failure(entry.getName(), e.toString());
+						}
+					})
+					.collect(Collectors.toList());
+
+			int loaded = 0;
+			List<midisyncloadreport.Failure> failures = new ArrayList<>();
+			for (midisyncloadreport.Failure r : results)
+			{
+				if (r != null) failures.add(r);
+				else loaded++;
+			}
+			// Tracks that were already cached were skipped, not parsed by this run
+			return new midisyncloadreport(tracks.size(), loaded - cached.get(), cached.get(), failures,
+					(System.nanoTime() - start) / 1_000_000);
+		}, pool);
+	}
+
+	public void shutdown()
+	{
+		pool.shutdownNow();
+	}
+}
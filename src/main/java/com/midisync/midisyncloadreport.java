@@ -0,0 +1,59 @@
+package com.midisync;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of a library preload: how many tracks were parsed and which files failed, in track order.
+ * Replaces one log line per broken file with a single summary.
+ */
+public final class midisyncloadreport
+{
+	public static final class Failure
+	{
+		private final String name;
+		private final String error;
+
+		Failure(String name, String error)
+		{
+			this.name = name;
+			this.error = error;
+		}
+
+		public String getName() { return name; }
+		public String getError() { return error; }
+
+		@Override
+		public String toString() { return name + ": " + error; }
+	}
+
+	private final int total;
+	private final int loaded;
+	private final int cached;
+	private final List<Failure> failures;
+	private final long elapsedMs;
+
+	midisyncloadreport(int total, int loaded, int cached, List<Failure> failures, long elapsedMs)
+	{
+		this.total = total;
+		this.loaded = loaded;
+		this.cached = cached;
+		this.failures = Collections.unmodifiableList(failures);
+		this.elapsedMs = elapsedMs;
+	}
+
+	public int getTotal() { return total; }
+	/** Tracks parsed by this preload. */
+	public int getLoaded() { return loaded; }
+	/** Tracks skipped because they were already in the cache. */
+	public int getCached() { return cached; }
+	public List<Failure> getFailures() { return failures; }
+	public long getElapsedMs() { return elapsedMs; }
+
+	@Override
+	public String toString()
+	{
+		return "Parsed " + loaded + "/" + total + " tracks (" + cached + " already cached) in " + elapsedMs + " ms"
+				+ (failures.isEmpty() ? "" : ", " + failures.size() + " failed " + failures);
+	}
+}
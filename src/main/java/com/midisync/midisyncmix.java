@@ -0,0 +1,33 @@
+package com.midisync;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.SysexMessage;
+
+/**
+ * Volume settings as synth controls instead of note velocities: channel volume (CC7) per channel, expression
+ * (CC11) held at full, and the overall volume as a GM master volume SysEx on the synth's main mixer.
+ * Controls act on notes that are already sounding, and leave the timbre alone (SF2 presets also map
+ * velocity to filter cutoff and sample layers).
+ */
+final class midisyncmix
+{
+	/** CC7 at 100%, the GM power-on default. */
+	static final int NOMINAL_VOLUME = 100;
+	static final int FULL_EXPRESSION = 127;
+
+	private midisyncmix() { }
+
+	/** CC7 value for a channel volume in percent; levels past 127% of nominal are capped, as velocities were. */
+	static int channelVolume(int percent)
+	{
+		return Math.max(0, Math.min(127, Math.round(NOMINAL_VOLUME * percent / 100f)));
+	}
+
+	/** Universal realtime master volume (F0 7F 7F 04 01 lsb msb F7) for a volume in percent, capped at unity. */
+	static SysexMessage masterVolume(int percent) throws InvalidMidiDataException
+	{
+		int value = Math.max(0, Math.min(16383, Math.round(16383 * percent / 100f)));
+		byte[] data = { (byte) 0xF0, 0x7F, 0x7F, 0x04, 0x01, (byte) (value & 0x7F), (byte) (value >> 7), (byte) 0xF7 };
+		return new SysexMessage(data, data.length);
+	}
+}
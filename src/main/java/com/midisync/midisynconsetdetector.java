@@ -0,0 +1,121 @@
+package com.midisync;
+
+import javax.sound.sampled.AudioFormat;
+import java.util.Arrays;
+
+/**
+ * Finds note onsets in rendered 16-bit PCM from its amplitude envelope, so a render's real timing can be checked
+ * against the frames its notes were scheduled at. The peak is taken per hop of {@link #HOP} frames and the level
+ * over the last {@link #WINDOW} hops (at least a period of a low note). When the level rises well above the decaying
+ * envelope from before the window, and above the noise floor, the onset is put at the first hop in the window that
+ * already stood out from that envelope.
+ *
+ * Notes closer together than the refractory time (a chord, a fast run) show up as one onset.
+ */
+final class midisynconsetdetector
+{
+	static final int HOP = 32; // frames, under a millisecond at 44.1 kHz
+	static final int WINDOW = 8;
+	static final double REFRACTORY_MS = 30.0;
+	private static final int FLOOR = 328; // -40 dBFS
+	private static final double RISE = 2.0; // level over the envelope that counts as an attack (+6 dB)
+	private static final double START = 1.25; // hop peak over the envelope that counts as the attack's start
+	private static final double RELEASE = 0.995; // envelope decay per hop
+
+	private final int channels;
+	private final int frameSize;
+	private final boolean bigEndian;
+	private final long refractoryFrames;
+
+	private long frame; // frames consumed so far
+	private int hopFrames;
+	private int hopPeak;
+	private double envelope;
+	// Last WINDOW hops: peak, and the envelope before the hop; slot hops % WINDOW is the oldest
+	private final int[] peaks = new int[WINDOW];
+	private final double[] envelopes = new double[WINDOW];
+	private long hops;
+	private long[] onsets = new long[256];
+	private int count;
+
+	midisynconsetdetector(AudioFormat format)
+	{
+		if (format.getSampleSizeInBits() != 16)
+			throw new IllegalArgumentException("Only 16-bit PCM is supported, got " + format);
+		channels = format.getChannels();
+		frameSize = format.getFrameSize();
+		bigEndian = format.isBigEndian();
+		refractoryFrames = Math.round(REFRACTORY_MS * format.getSampleRate() / 1000.0);
+	}
+
+	/** Feed the next whole frames of the stream. */
+	void write(byte[] buffer, int offset, int length)
+	{
+		for (int pos = offset; pos + frameSize <= offset + length; pos += frameSize)
+		{
+			for (int ch = 0; ch < channels; ch++)
+			{
+				int at = pos + ch * 2;
+				int sample = bigEndian ? (short) (buffer[at] << 8 | buffer[at + 1] & 0xFF) : (short) (buffer[at + 1] << 8 | buffer[at] & 0xFF);
+				hopPeak = Math.max(hopPeak, Math.abs(sample));
+			}
+			if (++hopFrames == HOP) endHop();
+		}
+	}
+
+	private void endHop()
+	{
+		int slot = (int) (hops % WINDOW);
+		peaks[slot] = hopPeak;
+		envelopes[slot] = envelope;
+		hops++;
+		frame += hopFrames;
+
+		int level = 0;
+		for (int peak : peaks) level = Math.max(level, peak);
+		double before = envelopes[(int) (hops % WINDOW)]; // envelope before the oldest hop in the window
+		if (level > FLOOR && level > RISE * before)
+		{
+			int first = 0;
+			while (first < WINDOW - 1 && peaks[(int) ((hops + first) % WINDOW)] <= Math.max(FLOOR, START * before)) first++;
+			long onset = Math.max(0, frame - (long) (WINDOW - first) * HOP);
+			if (count == 0 || onset - onsets[count - 1] > refractoryFrames)
+			{
+				if (count == onsets.length) onsets = Arrays.copyOf(onsets, count * 2);
+				onsets[count++] = onset;
+			}
+		}
+		envelope = Math.max(hopPeak, envelope * RELEASE);
+		hopFrames = 0;
+		hopPeak = 0;
+	}
+
+	/** Start frame of every onset found so far, ascending. */
+	long[] getOnsets()
+	{
+		return Arrays.copyOf(onsets, count);
+	}
+
+	/**
+	 * Offset in frames from each scheduled onset to the nearest detected one, for the scheduled onsets at least the
+	 * refractory time after the one before (the rest can't be told apart in the audio); {@link Long#MAX_VALUE}
+	 * where nothing was detected within the window. Both arrays must be ascending.
+	 */
+	static long[] deviations(long[] scheduled, long[] detected, long windowFrames, long refractoryFrames)
+	{
+		long[] deviations = new long[scheduled.length];
+		int count = 0;
+		int d = 0;
+		long previous = Long.MIN_VALUE;
+		for (long onset : scheduled)
+		{
+			if (previous != Long.MIN_VALUE && onset - previous <= refractoryFrames) continue;
+			previous = onset;
+
+			while (d + 1 < detected.length && Math.abs(detected[d + 1] - onset) <= Math.abs(detected[d] - onset)) d++;
+			long deviation = d < detected.length ? detected[d] - onset : Long.MAX_VALUE;
+			deviations[count++] = Math.abs(deviation) <= windowFrames ? deviation : Long.MAX_VALUE;
+		}
+		return Arrays.copyOf(deviations, count);
+	}
+}
@@ -53,8 +53,8 @@ public class midisyncoverlay extends Overlay
         int textY = y + padding;
 
         // Calculate total lines for dynamic height
-        int totalLines = trackLines.size() + sf2Lines.size() + quantLines.size() + 3;
-        // 3 for index, notes remaining, game tick
+        int totalLines = trackLines.size() + sf2Lines.size() + quantLines.size() + 5;
+        // 5 for index, notes remaining, game tick, tick clock, voices
         int height = totalLines * lineHeight + 2 * padding;
 
         // Draw semi-transparent background
@@ -78,7 +78,17 @@ public class midisyncoverlay extends Overlay
 
         // Game tick
         textY += lineHeight;
-        g.drawString("Game Tick: " + (int) plugin.getGameTickCounter(), x + padding, textY);
+        g.drawString("Game Tick: " + (int) plugin.getGameTickCounter()
+                + " (" + Math.round(plugin.getTickPeriodMs()) + " ms)", x + padding, textY);
+
+        // Ticks the tick clock couldn't filter
+        textY += lineHeight;
+        g.drawString("Tick Stalls: " + plugin.getTickStalls() + ", Bursts: " + plugin.getTickBursts(), x + padding, textY);
+
+        // Live voices
+        textY += lineHeight;
+        g.drawString("Voices: " + plugin.getActiveVoices() + "/" + plugin.getVoiceBudget()
+                + " (stolen " + plugin.getStolenVoices() + ")", x + padding, textY);
 
         // SF2 status
         g.setColor(Color.ORANGE);
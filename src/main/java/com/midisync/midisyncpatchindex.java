@@ -0,0 +1,117 @@
+package com.midisync;
+
+/**
+ * Which (bank, program) patches a SoundFont provides, as one bit per patch over the full 14-bit bank space
+ * (16384 banks x 128 programs, 256 KB). Built once per font so channel setup can probe and fall back
+ * without building keys, hashing or allocating.
+ *
+ * Banks use Gervill's numbering: a melodic SF2 bank b is 14-bit bank b << 7, and drum kits (SF2 bank 128)
+ * report bank 0, so a kit is also found as (0, program).
+ */
+public final class midisyncpatchindex
+{
+	public static final int BANKS = 1 << 14;
+
+	/** Common banks where drum kits live in SF2s: 128 (GM), sometimes 1, sometimes 0. */
+	private static final int[] KIT_BANKS = { 128, 1, 0 };
+
+	/** No custom font: the synth's default bank is assumed to have everything. */
+	public static final midisyncpatchindex EMPTY = new midisyncpatchindex(new long[0], 0);
+
+	private final long[] bits;
+	private final int size;
+
+	private midisyncpatchindex(long[] bits, int size)
+	{
+		this.bits = bits;
+		this.size = size;
+	}
+
+	/** Index of every preset in the font (see {@link midisyncsoundfont} for preset ids). */
+	public static midisyncpatchindex of(int[] presetIds)
+	{
+		long[] bits = new long[BANKS * 128 / 64];
+		int size = 0;
+		for (int id : presetIds)
+		{
+			int bit = (id & midisyncsoundfont.PERCUSSION) != 0 ? id & 0x7F : id & (BANKS * 128 - 1);
+			if ((bits[bit >>> 6] & 1L << bit) == 0)
+			{
+				bits[bit >>> 6] |= 1L << bit;
+				size++;
+			}
+		}
+		return new midisyncpatchindex(bits, size);
+	}
+
+	public boolean isEmpty() { return size == 0; }
+
+	/** Number of distinct (bank, program) patches. */
+	public int size() { return size; }
+
+	public boolean has(int bank, int program)
+	{
+		if (bank < 0 || bank >= BANKS || program < 0 || program > 127 || size == 0) return false;
+		int bit = bank << 7 | program;
+		return (bits[bit >>> 6] & 1L << bit) != 0;
+	}
+
+	/** The program in the bank closest to the given one (lower first on a tie), or -1 if the bank is empty. */
+	public int nearestProgram(int bank, int program)
+	{
+		if (bank < 0 || bank >= BANKS || size == 0) return -1;
+		for (int distance = 0; distance < 128; distance++)
+		{
+			if (has(bank, program - distance)) return program - distance;
+			if (has(bank, program + distance)) return program + distance;
+		}
+		return -1;
+	}
+
+	/**
+	 * Bank and program (bank << 7 | program) to select for an OSRS instrument: its mapped patch, or when the font
+	 * lacks it the nearest program in bank 0. Without a custom font the mapped patch is used as is.
+	 */
+	public int melodicPatch(int osrsInstrument)
+	{
+		int bank = midisyncplugin.OSRSMidiMapper.mapBank(osrsInstrument);
+		int program = midisyncplugin.OSRSMidiMapper.mapProgram(osrsInstrument);
+		if (size > 0 && !has(bank, program))
+		{
+			int fallback = nearestProgram(0, program);
+			if (fallback >= 0)
+			{
+				bank = 0;
+				program = fallback;
+			}
+		}
+		return bank << 7 | program;
+	}
+
+	/**
+	 * Bank and program (bank << 7 | program) of the drum kit for channel 9: the requested kit in the first of
+	 * {@link #KIT_BANKS} that has it, else the standard kit 0; -1 if the font has neither.
+	 * Without a custom font the requested kit is selected in bank 128.
+	 */
+	public int kitPatch(int kitProgram)
+	{
+		int program = kitProgram >= 0 && kitProgram <= 127 ? kitProgram : 0;
+		if (size == 0) return KIT_BANKS[0] << 7 | program;
+
+		int bank = firstBank(KIT_BANKS, program);
+		if (bank < 0 && program != 0)
+		{
+			program = 0;
+			bank = firstBank(KIT_BANKS, program);
+		}
+		return bank < 0 ? -1 : bank << 7 | program;
+	}
+
+	/** The first of the candidate banks that has the program, or -1. */
+	public int firstBank(int[] banks, int program)
+	{
+		for (int bank : banks)
+			if (has(bank, program)) return bank;
+		return -1;
+	}
+}
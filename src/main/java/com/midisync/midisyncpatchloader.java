@@ -0,0 +1,175 @@
+package com.midisync;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.sound.midi.Instrument;
+import javax.sound.midi.Soundbank;
+import javax.sound.midi.Synthesizer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Keeps only the SoundFont instruments the current and upcoming tracks play loaded in the synth, instead of
+ * loadAllInstruments on the whole font. Each track registers the presets it needs; presets no longer needed
+ * by any retained track are unloaded at the next track change.
+ *
+ * Gervill keeps a loaded instrument's samples in its soundbank objects even after unloading, so dropping
+ * presets swaps in a fresh soundbank and reloads what is still needed; the old samples are then garbage.
+ * Unloading also silences every channel, which is why it only happens when the track changes, and why the new
+ * track waits for the swap before it starts. All synth work runs on one background thread, in request order.
+ */
+@Slf4j
+public final class midisyncpatchloader
+{
+	private final midisyncsoundfont soundFont;
+	private final Synthesizer synth;
+	private final ExecutorService worker = Executors.newSingleThreadExecutor(r -> {
+		Thread t = new Thread(r, "midisync-soundfont");
+		t.setDaemon(true);
+		t.setPriority(Thread.MIN_PRIORITY);
+		return t;
+	});
+
+	// Only touched on the worker
+	private final Map<String, int[]> owners = new HashMap<>();
+	private final Map<Integer, Instrument> loaded = new HashMap<>();
+	private Map<Integer, Instrument> instruments; // of the current soundbank generation, by preset id
+
+	private volatile int loadedCount;
+
+	public midisyncpatchloader(midisyncsoundfont soundFont, Synthesizer synth)
+	{
+		this.soundFont = soundFont;
+		this.synth = synth;
+	}
+
+	public midisyncsoundfont getSoundFont() { return soundFont; }
+
+	/** Presets currently loaded in the synth. */
+	public int getLoadedCount() { return loadedCount; }
+
+	/** Load what the track needs, in the background. No-op for presets that are already loaded. */
+	public Future<?> require(String trackName, midisynctrack track, boolean osrsOnly)
+	{
+		int[] presets = soundFont.presetsFor(track, osrsOnly);
+		try
+		{
+			return worker.submit(() -> {
+				owners.put(trackName, presets);
+				load(presets);
+			});
+		}
+		catch (RejectedExecutionException e)
+		{
+			return CompletableFuture.completedFuture(null);
+		}
+	}
+
+	/** Like {@link #require}, but waits until the instruments are in the synth (for worker threads). */
+	public void requireNow(String trackName, midisynctrack track, boolean osrsOnly) throws InterruptedException
+	{
+		try
+		{
+			require(trackName, track, osrsOnly).get();
+		}
+		catch (ExecutionException e)
+		{
+			log.debug("Failed to load instruments for {}: {}", trackName, e.getCause().toString());
+		}
+	}
+
+	/**
+	 * Forget every track but these and unload the presets only the others used. Call on a track change, with
+	 * the new current track first. The returned future completes once every earlier request has been served,
+	 * the synth has been silenced by the unload (if anything was dropped) and the first track's presets are
+	 * back in; the presets of the other tracks are reloaded after that.
+	 */
+	public Future<?> retain(List<String> trackNames)
+	{
+		Set<String> keep = new HashSet<>(trackNames);
+		CompletableFuture<Void> swapped = new CompletableFuture<>();
+		try
+		{
+			worker.execute(() -> {
+				try
+				{
+					owners.keySet().retainAll(keep);
+
+					Set<Integer> needed = new HashSet<>();
+					for (int[] presets : owners.values())
+						for (int id : presets) needed.add(id);
+					if (needed.containsAll(loaded.keySet())) return;
+
+					for (Instrument instrument : loaded.values()) synth.unloadInstrument(instrument);
+					loaded.clear();
+					loadedCount = 0;
+					instruments = null;
+					int[] current = trackNames.isEmpty() ? null : owners.get(trackNames.get(0));
+					if (current != null) load(current);
+					swapped.complete(null);
+					for (int[] presets : owners.values()) load(presets);
+				}
+				finally
+				{
+					swapped.complete(null);
+				}
+			});
+		}
+		catch (RejectedExecutionException e)
+		{
+			// shut down meanwhile
+			swapped.complete(null);
+		}
+		return swapped;
+	}
+
+	public void shutdown()
+	{
+		worker.shutdownNow();
+	}
+
+	private void load(int[] presets)
+	{
+		for (int id : presets)
+		{
+			if (loaded.containsKey(id)) continue;
+			if (instruments == null) openGeneration();
+
+			Instrument instrument = instruments.get(id);
+			if (instrument == null || !synth.isOpen()) continue;
+			if (synth.loadInstrument(instrument))
+			{
+				loaded.put(id, instrument);
+				loadedCount = loaded.size();
+			}
+		}
+	}
+
+	/** Open a fresh soundbank to load from; a font Gervill can't open leaves nothing to load (the default bank plays). */
+	private void openGeneration()
+	{
+		instruments = Collections.emptyMap();
+		try
+		{
+			Soundbank generation = soundFont.openSoundbank();
+			if (generation != null && synth.isSoundbankSupported(generation))
+				instruments = midisyncsoundfont.instruments(generation);
+			else
+				log.warn("SoundFont {} is not supported by the synthesizer", soundFont.getFile().getName());
+		}
+		catch (Exception e)
+		{
+			log.warn("Failed to open SoundFont {}: {}", soundFont.getFile().getName(), e.toString());
+		}
+	}
+}
@@ -0,0 +1,142 @@
+package com.midisync;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Pre-rendered tracks as raw PCM files, one per track/SoundFont/timing combination, rendered in the background
+ * by {@link midisyncrenderer}. The key covers everything that changes the audio, so a stale render is simply
+ * never looked up again; the oldest files are deleted once the directory grows past {@link #MAX_BYTES}.
+ */
+@Slf4j
+public final class midisyncpcmcache
+{
+	private static final long MAX_BYTES = 1L << 30;
+	private static final int VERSION = 2; // 2: notes placed by the file's tempo map
+
+	private final File directory;
+	private final ExecutorService executor;
+	private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+	private final Set<String> failed = ConcurrentHashMap.newKeySet();
+
+	public midisyncpcmcache(File directory)
+	{
+		this.directory = directory;
+		this.executor = Executors.newSingleThreadExecutor(r ->
+		{
+			Thread t = new Thread(r, "midisync-prerender");
+			t.setDaemon(true);
+			t.setPriority(Thread.MIN_PRIORITY);
+			return t;
+		});
+	}
+
+	/** Cache key for one rendering of a MIDI file: source file, SoundFont and every setting baked into the audio. */
+	public static String key(File midiFile, File soundFont, midisynctimeline timeline, double tickDurationMs,
+			boolean osrsOnly, int[] channelVolumes, AudioFormat format)
+	{
+		String id = VERSION + "|" + midiFile.getAbsolutePath() + '|' + midiFile.length() + '|' + midiFile.lastModified()
+				+ '|' + (soundFont != null ? soundFont.getAbsolutePath() + '|' + soundFont.lastModified() : "default")
+				+ '|' + timeline.getQuantization() + '|' + timeline.getMicrosPerGameTick() + '|' + tickDurationMs + '|' + osrsOnly
+				+ '|' + Arrays.toString(channelVolumes) + '|' + format;
+		return UUID.nameUUIDFromBytes(id.getBytes(StandardCharsets.UTF_8)).toString();
+	}
+
+	/** The finished render for the key, or null if it hasn't been rendered yet. */
+	public File get(String key)
+	{
+		File file = fileFor(key);
+		return file.isFile() ? file : null;
+	}
+
+	public boolean isRendering(String key) { return inFlight.contains(key); }
+
+	public boolean hasFailed(String key) { return failed.contains(key); }
+
+	/** Record that the key can't be rendered (e.g. no offline synth in this JVM), so it isn't looked up again. */
+	public void markFailed(String key) { failed.add(key); }
+
+	/** Queue a background render unless one is already running or has failed for this key. */
+	public void request(String key, String name, midisynctimeline timeline, double tickDurationMs, midisyncrenderer renderer)
+	{
+		if (failed.contains(key) || get(key) != null || !inFlight.add(key)) return;
+
+		executor.execute(() ->
+		{
+			try
+			{
+				Files.createDirectories(directory.toPath());
+				Path tmp = Files.createTempFile(directory.toPath(), "pcm", ".tmp");
+				try
+				{
+					midisyncrenderreport report;
+					try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))
+					{
+						report = renderer.render(timeline, tickDurationMs, out, fileFor(key));
+					}
+					if (Thread.currentThread().isInterrupted()) return;
+					Files.move(tmp, fileFor(key).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+					log.debug("Pre-rendered {}: {}", name, report);
+				}
+				finally
+				{
+					Files.deleteIfExists(tmp);
+				}
+				prune();
+			}
+			catch (Exception e)
+			{
+				failed.add(key);
+				log.warn("Failed to pre-render {}: {}", name, e.toString());
+			}
+			finally
+			{
+				inFlight.remove(key);
+			}
+		});
+	}
+
+	public void shutdown()
+	{
+		executor.shutdownNow();
+	}
+
+	private File fileFor(String key)
+	{
+		return new File(directory, key + ".pcm");
+	}
+
+	/** Delete the least recently written renders until the directory fits in MAX_BYTES. */
+	private void prune()
+	{
+		File[] files = directory.listFiles((dir, name) -> name.endsWith(".pcm"));
+		if (files == null) return;
+
+		long total = 0;
+		for (File f : files) total += f.length();
+		if (total <= MAX_BYTES) return;
+
+		Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+		for (File f : files)
+		{
+			if (total <= MAX_BYTES) break;
+			long size = f.length();
+			if (f.delete()) total -= size;
+		}
+	}
+}
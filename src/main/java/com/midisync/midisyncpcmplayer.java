@@ -0,0 +1,234 @@
+package com.midisync;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Streams a pre-rendered track (see {@link midisyncpcmcache}) through a SourceDataLine, gated by game ticks.
+ * The plugin moves a frontier forward on every GameTick and a writer thread feeds the line up to it, so
+ * audio never runs ahead of the game: a stalled client stops the music, and if the game gets ahead of the
+ * line by more than {@link #MAX_LAG_TICKS} ticks the writer skips forward instead of drifting.
+ * The rendered file is read a chunk at a time into a reused heap buffer rather than mapped, so the cache can
+ * still delete it while it plays (Windows keeps a mapped file until the mapping is garbage collected).
+ */
+@Slf4j
+public final class midisyncpcmplayer
+{
+	private static final int MAX_LAG_TICKS = 3;
+	private static final int CHUNK_FRAMES = 1024;
+
+	private final AudioFormat format;
+	private final int frameSize;
+	private SourceDataLine line; // guarded by this
+	private Thread thread;
+	private volatile boolean running; // set and cleared under this, together with line
+	private boolean unavailable; // opening the line failed once; don't retry every tick
+
+	// Track state, guarded by this
+	private FileChannel pcm;
+	private long totalFrames;
+	private long writtenFrame;
+	private long tickFrames;
+
+	private volatile long frontierFrame;
+	private volatile float gain = 1f;
+
+	public midisyncpcmplayer(AudioFormat format)
+	{
+		this.format = format;
+		this.frameSize = format.getFrameSize();
+	}
+
+	/** Open the output line and start the writer thread; false if no line is available. */
+	public boolean open(double tickDurationMs)
+	{
+		if (line != null) return true;
+		if (unavailable) return false;
+		SourceDataLine opened;
+		try
+		{
+			opened = AudioSystem.getSourceDataLine(format);
+			// Room for the lookahead the plugin allows (two ticks) plus one spare
+			opened.open(format, (int) midisyncrenderer.frameAt(3, tickDurationMs, format) * frameSize);
+			opened.start();
+		}
+		catch (LineUnavailableException | IllegalArgumentException e)
+		{
+			log.warn("Pre-rendered playback unavailable, no audio line: {}", e.toString());
+			unavailable = true;
+			return false;
+		}
+
+		synchronized (this)
+		{
+			line = opened;
+			running = true;
+		}
+		thread = new Thread(this::run, "midisync-pcm");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MAX_PRIORITY);
+		thread.start();
+		return true;
+	}
+
+	public void close()
+	{
+		SourceDataLine closing;
+		synchronized (this)
+		{
+			// The writer checks running under the same lock before it takes its copy of the line, so it never sees
+			// null; a write that got its copy before this returns once the line is closed
+			running = false;
+			closePcm();
+			closing = line;
+			line = null;
+		}
+		if (thread != null)
+		{
+			thread.interrupt();
+			thread = null;
+		}
+		if (closing != null) closing.close();
+	}
+
+	/** Start streaming a rendered track from the given frame; nothing plays until {@link #advanceTo} is called. */
+	public void play(File pcmFile, long startFrame, double tickDurationMs) throws IOException
+	{
+		FileChannel channel = FileChannel.open(pcmFile.toPath(), StandardOpenOption.READ);
+		long size;
+		try
+		{
+			size = channel.size();
+		}
+		catch (IOException e)
+		{
+			channel.close();
+			throw e;
+		}
+
+		synchronized (this)
+		{
+			if (line != null) line.flush();
+			closePcm();
+			pcm = channel;
+			totalFrames = size / frameSize;
+			writtenFrame = startFrame;
+			tickFrames = midisyncrenderer.frameAt(1, tickDurationMs, format);
+			frontierFrame = startFrame;
+		}
+	}
+
+	/** Drop the current track and anything still queued in the line. */
+	public synchronized void stopTrack()
+	{
+		closePcm();
+		if (line != null) line.flush();
+	}
+
+	public synchronized boolean isPlaying() { return pcm != null; }
+
+	/** Allow audio up to (not including) the given frame of the track to be written to the line. */
+	public void advanceTo(long frame)
+	{
+		frontierFrame = frame;
+		Thread t = thread;
+		if (t != null) LockSupport.unpark(t);
+	}
+
+	/** Linear output gain, 0..1. */
+	public void setGain(float gain)
+	{
+		this.gain = Math.max(0f, Math.min(1f, gain));
+	}
+
+	private void run()
+	{
+		ByteBuffer chunk = ByteBuffer.allocate(CHUNK_FRAMES * frameSize);
+		while (true)
+		{
+			int length;
+			SourceDataLine out;
+			synchronized (this)
+			{
+				if (!running) return;
+				length = fill(chunk);
+				out = line;
+			}
+			if (length == 0)
+			{
+				LockSupport.parkNanos(this, 50_000_000L);
+				continue;
+			}
+			// Blocks while the line is full; that is what paces the writer in real time
+			out.write(chunk.array(), 0, length);
+		}
+	}
+
+	/** Copy the next chunk below the frontier into the buffer, applying gain; returns its length in bytes. */
+	private synchronized int fill(ByteBuffer buffer)
+	{
+		if (pcm == null) return 0;
+
+		long frontier = Math.min(frontierFrame, totalFrames);
+		if (frontier - writtenFrame > MAX_LAG_TICKS * tickFrames)
+			writtenFrame = frontier - tickFrames; // game ran ahead of the line: catch up rather than drift
+
+		long frames = Math.min(CHUNK_FRAMES, frontier - writtenFrame);
+		if (frames <= 0) return 0;
+
+		buffer.clear().limit((int) frames * frameSize);
+		try
+		{
+			long position = writtenFrame * frameSize;
+			while (buffer.hasRemaining() && pcm.read(buffer, position + buffer.position()) >= 0) { }
+		}
+		catch (IOException e)
+		{
+			log.debug("Stopped pre-rendered audio, read failed: {}", e.toString());
+			closePcm();
+			return 0;
+		}
+		int length = buffer.position() - buffer.position() % frameSize;
+		writtenFrame += length / frameSize;
+
+		byte[] chunk = buffer.array();
+		float g = gain;
+		if (g < 1f)
+		{
+			// 16-bit little-endian signed samples
+			for (int i = 0; i < length; i += 2)
+			{
+				int sample = (short) ((chunk[i] & 0xFF) | (chunk[i + 1] << 8));
+				sample = (int) (sample * g);
+				chunk[i] = (byte) sample;
+				chunk[i + 1] = (byte) (sample >> 8);
+			}
+		}
+		return length;
+	}
+
+	/** Close the rendered file of the current track, if any; the caller holds the lock. */
+	private void closePcm()
+	{
+		if (pcm == null) return;
+		try
+		{
+			pcm.close();
+		}
+		catch (IOException e)
+		{
+			log.debug("Failed to close pre-rendered audio: {}", e.toString());
+		}
+		pcm = null;
+	}
+}
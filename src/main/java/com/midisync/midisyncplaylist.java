@@ -0,0 +1,87 @@
+package com.midisync;
+
+import java.util.function.IntPredicate;
+
+/**
+ * The active rotation: the library entries that pass the whitelist/blacklist, in library order.
+ * It only holds positions into the catalog, so changing the filter rebuilds this view and nothing else.
+ *
+ * A playlist can carry one extra "kept" entry that fails the filter, so the track that is playing
+ * when the filter changes (or its file disappears) keeps its place until playback moves on.
+ */
+public final class midisyncplaylist
+{
+	private final midisynccatalog library;
+	private final IntPredicate filter;
+	private final int[] positions;
+	private final int keptIndex; // playlist index of the kept entry, or -1
+
+	private midisyncplaylist(midisynccatalog library, IntPredicate filter, int[] positions, int keptIndex)
+	{
+		this.library = library;
+		this.filter = filter;
+		this.positions = positions;
+		this.keptIndex = keptIndex;
+	}
+
+	public static midisyncplaylist empty()
+	{
+		return new midisyncplaylist(midisynccatalog.empty(), n -> true, new int[0], -1);
+	}
+
+	/** Filter the library by track number, keeping the named entry even if the filter rejects it. */
+	public static midisyncplaylist of(midisynccatalog library, IntPredicate filter, String keepName)
+	{
+		int[] positions = new int[library.size()];
+		int count = 0;
+		int keptIndex = -1;
+		for (int i = 0; i < library.size(); i++)
+		{
+			midisynccatalog.Entry entry = library.get(i);
+			if (filter.test(entry.getTrackNumber()))
+			{
+				positions[count++] = i;
+			}
+			else if (entry.getName().equals(keepName))
+			{
+				keptIndex = count;
+				positions[count++] = i;
+			}
+		}
+
+		int[] trimmed = new int[count];
+		System.arraycopy(positions, 0, trimmed, 0, count);
+		return new midisyncplaylist(library, filter, trimmed, keptIndex);
+	}
+
+	/** Same filter over the same library, without the kept entry. */
+	public midisyncplaylist withoutKept()
+	{
+		return keptIndex == -1 ? this : of(library, filter, null);
+	}
+
+	public boolean isKept(int index) { return index == keptIndex; }
+
+	public boolean hasKept() { return keptIndex != -1; }
+
+	public int size() { return positions.length; }
+
+	public boolean isEmpty() { return positions.length == 0; }
+
+	public midisynccatalog.Entry get(int index) { return library.get(positions[index]); }
+
+	public int indexOfName(String name)
+	{
+		for (int i = 0; i < positions.length; i++)
+			if (library.get(positions[i]).getName().equals(name)) return i;
+		return -1;
+	}
+
+	public int indexOfTrackNumber(int trackNumber)
+	{
+		if (trackNumber == -1) return -1;
+		for (int i = 0; i < positions.length; i++)
+			if (library.get(positions[i]).getTrackNumber() == trackNumber) return i;
+		return -1;
+	}
+}
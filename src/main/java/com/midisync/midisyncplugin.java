@@ -4,6 +4,8 @@ import com.google.inject.Provides;
 import lombok.extern.slf4j.Slf4j;
 import net.runelite.api.Client;
 import net.runelite.api.events.GameTick;
+import net.runelite.client.RuneLite;
+import net.runelite.client.callback.ClientThread;
 import net.runelite.client.config.ConfigManager;
 import net.runelite.client.eventbus.Subscribe;
 import net.runelite.client.events.ConfigChanged;
@@ -14,11 +16,13 @@ import net.runelite.client.ui.overlay.OverlayManager;
 
 import javax.inject.Inject;
 import javax.sound.midi.*;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
 import java.io.File;
+import java.io.IOException;
 import java.util.*;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Future;
+import java.util.function.IntPredicate;
 
 @Slf4j
 @PluginDescriptor(
@@ -29,6 +33,7 @@ import java.util.concurrent.TimeUnit;
 public class midisyncplugin extends Plugin
 {
 	@Inject private Client client;
+	@Inject private ClientThread clientThread;
 	@Inject private ConfigManager configManager;
 	@Inject private midisyncconfig config;
 	@Inject private OverlayManager overlayManager;
@@ -37,52 +42,132 @@ public class midisyncplugin extends Plugin
 
 	private Synthesizer synth;
 	private MidiChannel[] channels;
-
-	private final Map<Integer, MidiChannel> instrumentChannelMap = new HashMap<>();
-	private int nextAvailableChannel = 0;
-
-	private List<danielMidiNote> notes;
-	private List<List<danielMidiNote>> trackNotes;
+	private Receiver synthReceiver; // for timestamped playback; null if the synth has none
+	private volatile midisyncpatchloader patchLoader; // custom SF2 presets loaded per track; null for the default bank
+	private Thread renderThread;
+	private midisyncpcmcache pcmCache;
+	private final midisyncpcmplayer pcmPlayer = new midisyncpcmplayer(midisyncrenderer.DEFAULT_FORMAT);
+	private String pcmKey; // render the PCM player is streaming, or null while playing live
+
+	// Pre-render key of the current timeline, worked out again only when the timeline, settings or SoundFont change
+	private String prerenderKey;
+	private midisynctimeline prerenderKeyTimeline;
+	private midisyncsettings prerenderKeySettings;
+	private midisyncsoundfont prerenderKeySoundFont;
+
+	// Timestamped playback: the current batch's clock origin, and how far ahead the synth has been fed
+	private long batchBaseNanos;
+	private long batchBaseUs;
+	private long batchHorizonUs = -1;
+	private long holdUntilUs = -1; // after a cancel, nothing new is queued before the cancelled batch's horizon
+
+	private midisynctimeline timeline;
+	private midisynccatalog catalog = midisynccatalog.empty(); // every file in the folder
+	private midisyncplaylist playlist = midisyncplaylist.empty(); // the whitelisted/blacklisted rotation over it
+	private String trackFilterKey; // settings the cached trackFilter was built from
+	private IntPredicate trackFilter;
+	private final midisynctrackcache trackCache = new midisynctrackcache(8);
+	private midisyncprefetcher prefetcher;
+	private final midisyncdiskcache diskCache = new midisyncdiskcache(new File(RuneLite.RUNELITE_DIR, "midisync/tracks"));
+	private midisynclibraryloader libraryLoader; // only while a preload is running
+	private midisyncfolderwatcher folderWatcher;
+	private int playCursor = 0;
 	private int currentTrackIndex = 0;
+	private boolean pendingTrack = false; // current track selected but still being parsed, or its instruments swapped in
+	private Future<?> patchSwap; // instrument swap of the last track change; the track starts once it is done
+	private int shuffleNextIndex = -1; // pre-drawn shuffle pick, so it can be pinned before we get there
+	private final Random random = new Random();
 	private double gameTickCounter = 0.0;
-	private String sf2Status = "No SoundFont loaded";
+	private final midisynctickclock tickClock = new midisynctickclock(); // measured GameTick cadence, client thread
 
-	private List<String> trackNames;
+	// Lookahead: ticks after the current one whose notes are already queued, and the start they assumed for the next tick
+	private static final long LOOKAHEAD_TOLERANCE_NS = 1_000_000L;
+	private int committedAhead = 0;
+	private long predictedTickStart;
+	private String sf2Status = "No SoundFont loaded";
 
 	private midisyncoverlay overlay;
-	private ScheduledExecutorService noteScheduler = Executors.newSingleThreadScheduledExecutor();
-	private final Set<String> availableBankProgram = new HashSet<>();
-
-	// Cache per-channel bank/program to avoid redundant CC/programChange spam
-	private final int[] chBank = new int[16];
-	private final int[] chProgram = new int[16];
-
-	// Drum-kit selection (for channel 9) — resolved once per session / SF2
-	private boolean percussionKitLocked = false;
-	private int percussionBank = -1;
-	private int percussionProgram = -1;
-
-	private int getChannelVolume(int channel)
-	{
-		switch (channel)
-		{
-			case 0: return config.channel0Volume();
-			case 1: return config.channel1Volume();
-			case 2: return config.channel2Volume();
-			case 3: return config.channel3Volume();
-			case 4: return config.channel4Volume();
-			case 5: return config.channel5Volume();
-			case 6: return config.channel6Volume();
-			case 7: return config.channel7Volume();
-			case 8: return config.channel8Volume();
-			case 9: return config.channel9Volume();  // percussion
-			case 10: return config.channel10Volume();
-			case 11: return config.channel11Volume();
-			case 12: return config.channel12Volume();
-			case 13: return config.channel13Volume();
-			case 14: return config.channel14Volume();
-			case 15: return config.channel15Volume();
-			default: return 100;
+	private final midisyncdispatcher dispatcher = new midisyncdispatcher(this::sendNote);
+	private final midisyncvoices voices = new midisyncvoices(48);
+	private long timedOutputStamp; // timestamp for timedOutput, set per event on the client thread
+
+	/** Voice-manager output straight to the synth channels (dispatcher thread). */
+	private final midisyncvoices.Output liveOutput = new midisyncvoices.Output()
+	{
+		@Override
+		public void noteOn(int channel, int key, int velocity)
+		{
+			MidiChannel[] chs = channels;
+			if (chs != null && channel < chs.length) chs[channel].noteOn(key, velocity);
+		}
+
+		@Override
+		public void noteOff(int channel, int key)
+		{
+			MidiChannel[] chs = channels;
+			if (chs != null && channel < chs.length) chs[channel].noteOff(key);
+		}
+	};
+
+	/** Voice-manager output as timestamped messages queued in the synth (client thread). */
+	private final midisyncvoices.Output timedOutput = new midisyncvoices.Output()
+	{
+		@Override
+		public void noteOn(int channel, int key, int velocity)
+		{
+			sendTimed(ShortMessage.NOTE_ON, channel, key, velocity);
+		}
+
+		@Override
+		public void noteOff(int channel, int key)
+		{
+			sendTimed(ShortMessage.NOTE_OFF, channel, key, 0);
+		}
+	};
+	private volatile midisyncpatchindex patches = midisyncpatchindex.EMPTY; // what the custom SF2 provides; read by the dispatcher too
+
+	// Cache per-channel bank/program to avoid redundant CC/programChange spam; client thread only
+	private final int[] chBank = new int[midisyncchannelplan.MAX_CHANNELS];
+	private final int[] chProgram = new int[midisyncchannelplan.MAX_CHANNELS];
+
+	// Whether the current track's channel plan has been sent since the channels were last reset
+	private boolean channelPlanApplied = false;
+
+	// Settings read on the tick and scheduling paths; replaced as a whole when the config group changes
+	private volatile midisyncsettings settings;
+
+	private int[] channelVolumes()
+	{
+		return settings.getChannelVolumes();
+	}
+
+	/**
+	 * Send the snapshot's volumes to the synth, as controls rather than folded into each note's velocity: CC7 and full CC11 on every channel (the second port follows the
+	 * first port's volumes) and the master volume SysEx. Takes effect on sounding notes too.
+	 */
+	private void applyMix()
+	{
+		MidiChannel[] chs = channels;
+		if (chs == null) return;
+
+		midisyncsettings s = settings;
+		Receiver receiver = synthReceiver;
+		// Without a receiver the master volume can't be sent, so it goes into each channel's volume instead
+		int master = receiver != null ? 100 : s.getMidiVolume();
+		for (int ch = 0; ch < chs.length; ch++)
+		{
+			sendChannelMessage(ShortMessage.CONTROL_CHANGE, ch, 7, midisyncmix.channelVolume(s.getChannelVolume(ch % 16) * master / 100));
+			sendChannelMessage(ShortMessage.CONTROL_CHANGE, ch, 11, midisyncmix.FULL_EXPRESSION);
+		}
+		if (receiver == null) return;
+
+		try
+		{
+			receiver.send(midisyncmix.masterVolume(s.getMidiVolume()), controlStamp());
+		}
+		catch (InvalidMidiDataException | IllegalStateException e)
+		{
+			log.debug("Failed to set master volume: {}", e.toString());
 		}
 	}
 
@@ -95,15 +180,15 @@ public class midisyncplugin extends Plugin
 	/** Returns the tick subdivision (e.g., 1/4, 1/8, ...). */
 	public double configQuantizationValue()
 	{
-		int divisor = config.quantizeDivisor();
-		return divisor > 0 ? 1.0 / divisor : 1.0;
+		return settings.getQuantization();
 	}
 
 	@Override
 	protected void startUp() throws Exception
 	{
 		log.info("Starting Daniel MIDI Sync...");
-		if (!config.MidiSync())
+		settings = midisyncsettings.of(config);
+		if (!settings.isEnabled())
 			return;
 
 		try
@@ -115,9 +200,15 @@ public class midisyncplugin extends Plugin
 			log.error("Failed to initialise synthesizer", e);
 			return;
 		}
+		dispatcher.start();
+		voices.setBudget(config.voiceBudget());
 
-		// load all tracks with whitelist/blacklist logic
+		// index the folder with whitelist/blacklist logic; tracks are parsed when selected
+		trackCache.setCapacity(cacheCapacity());
+		prefetcher = new midisyncprefetcher(trackCache, this::prefetchTrack);
+		pcmCache = new midisyncpcmcache(new File(RuneLite.RUNELITE_DIR, "midisync/pcm"));
 		loadTracks();
+		startFolderWatcher();
 
 		// create & add overlay
 		overlay = new midisyncoverlay(client, this, config, fontManager);
@@ -129,13 +220,33 @@ public class midisyncplugin extends Plugin
 	@Override
 	protected void shutDown() throws Exception
 	{
-		resetTracks();
+		if (folderWatcher != null)
+		{
+			folderWatcher.stop();
+			folderWatcher = null;
+		}
 
-		if (synth != null)
+		resetTracks();
+		dispatcher.stop();
+		if (renderThread != null)
+		{
+			renderThread.interrupt();
+			renderThread = null;
+		}
+		pcmPlayer.close();
+		if (pcmCache != null)
 		{
-			synth.close();
-			synth = null;
+			pcmCache.shutdown();
+			pcmCache = null;
 		}
+		if (prefetcher != null)
+		{
+			prefetcher.shutdown();
+			prefetcher = null;
+		}
+		trackCache.clear();
+
+		closeSynth();
 
 		if (overlay != null)
 		{
@@ -149,81 +260,268 @@ public class midisyncplugin extends Plugin
 	@Subscribe
 	public void onGameTick(GameTick event)
 	{
-		if (!config.MidiSync() || notes == null || notes.isEmpty()) return;
+		midisyncsettings s = settings;
+		if (!s.isEnabled()) return;
+		if (pendingTrack) activatePendingTrack();
+		if (timeline == null || timeline.isEmpty()) return;
+
+		long arrivalNanos = System.nanoTime();
+		long arrivalUs = synth != null ? synth.getMicrosecondPosition() : -1;
+		double tickDurationMs = s.getTickDurationMs();
+		double tickEnd = gameTickCounter + 1.0;
+
+		// Live notes go on the measured tick start and length; the pre-rendered audio was rendered at the nominal length
+		long tickStartNanos = tickClock.onTick(arrivalNanos, tickDurationMs);
+		double periodMs = tickClock.getPeriodMs();
+		if (tickClock.isResync())
+		{
+			log.debug("Game ticks ran more than a tick ahead of the audio; dropping queued notes");
+			cancelPendingNotes();
+			// That dropped the notes queued ahead too; walk those ticks again from this one
+			playCursor = timeline.seek(gameTickCounter);
+			committedAhead = 0;
+		}
+		else if (committedAhead > 0)
+		{
+			// Notes queued ahead went on the predicted start of this tick; move them onto the estimated one
+			long correction = tickStartNanos - predictedTickStart;
+			if (Math.abs(correction) > LOOKAHEAD_TOLERANCE_NS) dispatcher.shift(predictedTickStart, correction);
+		}
+		boolean prerendered = usePrerenderedAudio(tickDurationMs);
 
-		double tickDurationMs = config.tickDurationMs();
+		if (!prerendered && !channelPlanApplied) applyChannelPlan();
 
-		for (danielMidiNote note : notes)
+		// Walk this tick's slice of the timeline plus the lookahead ticks; anything before the cursor is already queued
+		int lookahead = prerendered ? 0 : s.getLookaheadTicks();
+		double windowEnd = tickEnd + lookahead;
+		while (playCursor < timeline.size() && timeline.startTick(playCursor) < windowEnd)
 		{
-			if (note.getStartTickFraction() >= gameTickCounter
-					&& note.getStartTickFraction() < gameTickCounter + 1.0)
-			{
-				scheduleNoteDynamic(note, tickDurationMs);
-			}
+			if (!prerendered && timeline.startTick(playCursor) >= gameTickCounter)
+				scheduleNoteDynamic(timeline, playCursor, tickStartNanos, periodMs);
+			playCursor++;
 		}
 
+		if (prerendered)
+		{
+			// Let the stream run one tick ahead so the line never starves waiting for the next GameTick
+			pcmPlayer.advanceTo(midisyncrenderer.frameAt(gameTickCounter + 2, tickDurationMs, midisyncrenderer.DEFAULT_FORMAT));
+		}
+		else
+		{
+			// The batch is taken first, so the dispatcher thread only gets what is left after it
+			if (s.isTimestampedPlayback())
+				sendTimestampedBatch(arrivalNanos, arrivalUs, tickStartNanos + (long) (periodMs * 1_000_000));
+			dispatcher.flush();
+		}
+		committedAhead = lookahead;
+		predictedTickStart = tickStartNanos + (long) (periodMs * 1_000_000);
+
 		gameTickCounter += 1.0;
 
-		double maxTick = notes.stream().mapToDouble(danielMidiNote::getEndTickFraction).max().orElse(0.0);
-		if (gameTickCounter > maxTick && trackNotes.size() > 1) skipTrack(true);
+		if (gameTickCounter > timeline.getEndTick() && playlist.size() > 1) skipTrack(true);
 
-		if (config.nextTrack())
+		if (s.isNextTrack())
 		{
 			skipTrack(true);
-			configManager.setConfiguration("danielPlugin", "nextTrack", false);
+			configManager.setConfiguration(midisyncconfig.GROUP, "nextTrack", false);
 		}
 
-		if (config.prevTrack())
+		if (s.isPrevTrack())
 		{
 			skipTrack(false);
-			configManager.setConfiguration("danielPlugin", "prevTrack", false);
+			configManager.setConfiguration(midisyncconfig.GROUP, "prevTrack", false);
+		}
+
+		if (s.isRenderCurrentTrack())
+		{
+			renderCurrentTrack();
+			configManager.setConfiguration(midisyncconfig.GROUP, "renderCurrentTrack", false);
 		}
 	}
 
+	/**
+	 * Whether this tick plays from the pre-rendered PCM instead of the live synth. Switches over as soon as the
+	 * render for the current track and settings exists (cutting the live notes so nothing doubles up), and
+	 * queues a background render otherwise.
+	 */
+	private boolean usePrerenderedAudio(double tickDurationMs)
+	{
+		midisyncsettings s = settings;
+		if (!s.isPrerenderedPlayback() || pcmCache == null || currentTrackIndex >= playlist.size())
+		{
+			stopPrerenderedAudio();
+			return false;
+		}
+
+		pcmPlayer.setGain(s.getMidiVolume() / 100f);
+		String key = prerenderKey(s, tickDurationMs);
+		if (key.equals(pcmKey)) return true;
+
+		stopPrerenderedAudio();
+		// Nothing to look up on disk while the render is running, or once it has failed
+		if (pcmCache.isRendering(key) || pcmCache.hasFailed(key)) return false;
+		File rendered = pcmCache.get(key);
+		if (rendered == null)
+		{
+			if (midisyncrenderer.isAvailable())
+				pcmCache.request(key, getCurrentTrackName(), timeline, tickDurationMs,
+						new midisyncrenderer(soundFont(), midisyncrenderer.DEFAULT_FORMAT, s.isOsrsOnly(), s.getChannelVolumes()));
+			else pcmCache.markFailed(key); // can't be rendered in this JVM, so don't look for it again
+			return false;
+		}
+		if (!pcmPlayer.open(tickDurationMs)) return false;
+
+		try
+		{
+			cancelPendingNotes();
+			stopAllNotes();
+			pcmPlayer.play(rendered, midisyncrenderer.frameAt(gameTickCounter, tickDurationMs, midisyncrenderer.DEFAULT_FORMAT), tickDurationMs);
+			pcmKey = key;
+			return true;
+		}
+		catch (IOException e)
+		{
+			log.debug("Failed to open pre-rendered audio for {}: {}", getCurrentTrackName(), e.toString());
+			return false;
+		}
+	}
+
+	private void stopPrerenderedAudio()
+	{
+		if (pcmKey == null) return;
+		pcmPlayer.stopTrack();
+		pcmKey = null;
+	}
+
+	/** Pre-render cache key of the current timeline, hashed only when it or what goes into it has changed. */
+	private String prerenderKey(midisyncsettings s, double tickDurationMs)
+	{
+		midisyncsoundfont sf = soundFont();
+		if (prerenderKey == null || prerenderKeyTimeline != timeline || prerenderKeySettings != s || prerenderKeySoundFont != sf)
+		{
+			prerenderKey = midisyncpcmcache.key(playlist.get(currentTrackIndex).getFile(), sf != null ? sf.getFile() : null,
+					timeline, tickDurationMs, s.isOsrsOnly(), s.getChannelVolumes(), midisyncrenderer.DEFAULT_FORMAT);
+			prerenderKeyTimeline = timeline;
+			prerenderKeySettings = s;
+			prerenderKeySoundFont = sf;
+		}
+		return prerenderKey;
+	}
+
+	/** The custom SoundFont in use, or null for the synth's default bank. */
+	private midisyncsoundfont soundFont()
+	{
+		midisyncpatchloader loader = patchLoader;
+		return loader != null ? loader.getSoundFont() : null;
+	}
+
+	/** Render the current track offline to a WAV file in the background; one render at a time. */
+	private void renderCurrentTrack()
+	{
+		if (!midisyncrenderer.isAvailable())
+		{
+			log.warn("Offline rendering needs the JVM option {}", midisyncgervill.ADD_OPENS);
+			return;
+		}
+		if (timeline == null || (renderThread != null && renderThread.isAlive())) return;
+
+		midisynctimeline toRender = timeline;
+		String name = getCurrentTrackName().replaceFirst("(?i)\\.mid$", "");
+		File out = new File(RuneLite.RUNELITE_DIR, "midisync/renders/" + name + ".wav");
+		midisyncrenderer renderer = new midisyncrenderer(soundFont(), midisyncrenderer.DEFAULT_FORMAT, settings.isOsrsOnly(), channelVolumes());
+		double tickDurationMs = settings.getTickDurationMs();
+
+		renderThread = new Thread(() ->
+		{
+			try
+			{
+				log.info(renderer.renderToWav(toRender, tickDurationMs, out).toString());
+			}
+			catch (InterruptedException e)
+			{
+				log.debug("Render of {} cancelled", name);
+			}
+			catch (Exception e)
+			{
+				log.warn("Failed to render {}: {}", name, e.toString());
+			}
+		}, "midisync-render");
+		renderThread.setDaemon(true);
+		renderThread.setPriority(Thread.MIN_PRIORITY);
+		renderThread.start();
+	}
+
 	@Subscribe
 	public void onConfigChanged(ConfigChanged event)
 	{
-		if (!event.getGroup().equals("danielPlugin"))
+		if (!event.getGroup().equals(midisyncconfig.GROUP))
 			return;
 
+		// Config changes arrive on the Swing thread; the state they touch belongs to the client thread
 		String key = event.getKey();
+		clientThread.invokeLater(() -> applyConfigChange(key));
+	}
+
+	/**
+	 * Publish the new settings snapshot and apply the change, on the client thread. The snapshot is taken here
+	 * rather than when the event arrives, so a game tick never sees new settings with a track, synth or
+	 * playlist that hasn't caught up with them yet.
+	 */
+	private void applyConfigChange(String key)
+	{
+		settings = midisyncsettings.of(config);
+		if (key.equals("midiVolume") || (key.startsWith("channel") && key.endsWith("Volume")))
+		{
+			applyMix();
+			return;
+		}
+
 		switch (key)
 		{
 			case "quantizeDivisor":
+			case "bpm":
+			case "tickDurationMs":
 				reQuantizeCurrentTrack();
 				break;
 
 			case "useWhitelist":
 			case "trackWhitelist":
 			case "trackBlacklist":
-			{
-				String oldTrackName = (trackNames != null && currentTrackIndex < trackNames.size())
-						? trackNames.get(currentTrackIndex)
-						: null;
-				double oldTick = gameTickCounter;
+				rebuildPlaylist();
+				break;
 
-				resetTracks();
-				loadTracks();
+			case "synthLatencyMs":
+			case "synthMaxPolyphony":
+			case "synthSampleRate":
+			case "synthInterpolation":
+			case "synthLargeMode":
+				reopenSynth();
+				break;
+
+			case "voiceBudget":
+				voices.setBudget(config.voiceBudget());
+				break;
 
-				// Restore previous track and play position if still available
-				if (oldTrackName != null && trackNames != null)
+			case "trackCacheSize":
+				trackCache.setCapacity(cacheCapacity());
+				break;
+
+			case "preloadTracks":
+				if (config.preloadTracks() && prefetcher != null && !catalog.isEmpty())
 				{
-					int idx = trackNames.indexOf(oldTrackName);
-					if (idx != -1)
-					{
-						currentTrackIndex = idx;
-						notes = trackNotes.get(idx);
-						gameTickCounter = oldTick;
-						log.info("Restored track after reload: {} at tick {}", oldTrackName, oldTick);
-					}
+					preloadLibrary();
 				}
-			}
-			break;
+				else
+				{
+					cancelPreload();
+					trackCache.setCapacity(cacheCapacity());
+				}
+				break;
 
 			case "addCurrentTrackToWhitelist":
 				addCurrentTrackToWhitelist();
 				// Reset toggle to false
-				configManager.setConfiguration("danielPlugin", "addCurrentTrackToWhitelist", false);
+				configManager.setConfiguration(midisyncconfig.GROUP, "addCurrentTrackToWhitelist", false);
 				break;
 		}
 	}
@@ -235,8 +533,11 @@ public class midisyncplugin extends Plugin
 	private void initSynth() throws Exception
 	{
 		synth = MidiSystem.getSynthesizer();
-		if (!synth.isOpen()) synth.open();
+		if (!synth.isOpen()) openSynth();
 		channels = synth.getChannels();
+		patches = midisyncpatchindex.EMPTY;
+		try { synthReceiver = synth.getReceiver(); }
+		catch (MidiUnavailableException e) { synthReceiver = null; }
 
 		String sf2Path = config.midiSoundfont();
 		if (sf2Path != null && !sf2Path.isEmpty())
@@ -244,19 +545,19 @@ public class midisyncplugin extends Plugin
 			File sf2File = new File(sf2Path);
 			if (sf2File.exists())
 			{
-				Soundbank sb = MidiSystem.getSoundbank(sf2File);
-				if (sb != null && synth.isSoundbankSupported(sb))
+				try
 				{
-					synth.loadAllInstruments(sb);
-					sf2Status = "SoundFont loaded: " + sf2File.getName();
-
-					for (Instrument instr : sb.getInstruments())
-					{
-						Patch p = instr.getPatch();
-						availableBankProgram.add(p.getBank() + "-" + p.getProgram());
-					}
+					// Index the presets only; instruments are loaded per track, just before it plays
+					midisyncsoundfont sf = midisyncsoundfont.open(sf2File);
+					patchLoader = new midisyncpatchloader(sf, synth);
+					patches = sf.getPatches();
+					sf2Status = "SoundFont indexed: " + sf2File.getName() + " (" + sf.getPresetCount() + " presets, "
+							+ sf.getSampleBytes() / (1024 * 1024) + " MB of samples)";
+				}
+				catch (IOException e)
+				{
+					sf2Status = "SoundFont not supported: " + e.getMessage();
 				}
-				else sf2Status = "SoundFont not supported or returned null";
 			}
 			else sf2Status = "SoundFont file does not exist: " + sf2Path;
 		}
@@ -266,52 +567,101 @@ public class midisyncplugin extends Plugin
 		resetChannelState();
 	}
 
-	/** Find/assign a channel for a melodic/vocal instrument (never channel 9). */
-	private MidiChannel getChannelForInstrument(int osrsInstrument)
+	/** Open the synth with the engine settings from the config, if Gervill lets us; otherwise with its defaults. */
+	private void openSynth() throws Exception
+	{
+		if (!midisyncgervill.supports(synth))
+		{
+			log.debug("Synth engine settings need the JVM option {}; using defaults", midisyncgervill.ADD_OPENS);
+			synth.open();
+			return;
+		}
+
+		Map<String, Object> info = new HashMap<>();
+		info.put("latency", config.synthLatencyMs() * 1000L);
+		info.put("max polyphony", config.synthMaxPolyphony());
+		info.put("interpolation", config.synthInterpolation().name().toLowerCase());
+		info.put("large mode", config.synthLargeMode());
+		info.put("midi channels", midisyncchannelplan.MAX_CHANNELS); // second port for tracks with many instruments
+
+		// Gervill takes its output format from the line, ignoring a "sample rate" in the info map
+		AudioFormat format = new AudioFormat(config.synthSampleRate(), 16, 2, true, false);
+		midisyncgervill.open(synth, AudioSystem.getSourceDataLine(format), info);
+	}
+
+	/**
+	 * Apply changed engine settings by reopening the synth. Sounding notes are cut, but the track and tick
+	 * are kept and the play cursor goes back to the notes that were queued ahead, so playback carries on
+	 * from the next tick without a gap.
+	 */
+	private void reopenSynth()
 	{
-		if (instrumentChannelMap.containsKey(osrsInstrument))
-			return instrumentChannelMap.get(osrsInstrument);
+		if (synth == null) return;
 
-		// Find next free non-9 channel deterministically
-		for (int tries = 0; tries < channels.length; tries++)
+		cancelPendingNotes();
+		// The cleared queue held the notes of the ticks committed ahead; the next tick queues them again
+		if (timeline != null) playCursor = timeline.seek(gameTickCounter);
+		committedAhead = 0;
+		closeSynth();
+		try
 		{
-			if (nextAvailableChannel >= channels.length) nextAvailableChannel = 0;
-			if (nextAvailableChannel == 9) { nextAvailableChannel++; continue; } // skip drums
-			MidiChannel candidate = channels[nextAvailableChannel++];
-			if (candidate != null && !instrumentChannelMap.containsValue(candidate))
-			{
-				instrumentChannelMap.put(osrsInstrument, candidate);
-				applyProgramChange(candidate, osrsInstrument);
-				return candidate;
-			}
+			initSynth();
+			requireInstruments();
+		}
+		catch (Exception e)
+		{
+			log.error("Failed to reopen synthesizer", e);
 		}
-		// Fallback (shouldn't happen): use channel 0
-		MidiChannel ch = channels[0];
-		applyProgramChange(ch, osrsInstrument);
-		return ch;
 	}
 
-	/** Apply OSRS program mapping with correct 14-bit bank select (MSB/LSB). */
-	private void applyProgramChange(MidiChannel ch, int osrsInstrument)
+	private void closeSynth()
 	{
-		int bank = OSRSMidiMapper.mapBank(osrsInstrument);
-		int program = OSRSMidiMapper.mapProgram(osrsInstrument);
+		if (synth == null) return;
+
+		synth.close();
+		synth = null;
+		channels = null;
+		voices.reset();
+		synthReceiver = null;
+		if (patchLoader != null)
+		{
+			patchLoader.shutdown();
+			patchLoader = null;
+		}
+		batchHorizonUs = -1;
+		holdUntilUs = -1;
+		patchSwap = null; // the loader was shut down, so the swap may never run
+	}
 
-		// If SF2 doesn't have this patch, try a graceful fallback to bank 0
-		if (!patchExists(bank, program) && patchExists(0, program))
-			bank = 0;
+	/**
+	 * Select every channel's bank/program for the current track up front, from the channel plan made when
+	 * the track was compiled, so no program change lands in the middle of a tick. After a reset in the middle
+	 * of the track, a time-shared channel gets the program it was switched to last before the play cursor.
+	 */
+	private void applyChannelPlan()
+	{
+		channelPlanApplied = true;
+		if (channels == null || timeline == null) return;
 
-		setBankAndProgram(ch, 0, bank, program); // CC0=MSB, CC32=LSB (derived inside)
+		midisyncchannelplan plan = timeline.getTrack().getChannelPlan(channels.length);
+		for (int ch = 0; ch < channels.length; ch++)
+		{
+			int program = plan.getProgram(ch, playCursor);
+			if (program >= 0) applyProgramChange(ch, program);
+		}
+		if (plan.getKitProgram() >= 0) applyPercussionKit(plan.getKitProgram());
 	}
 
-	/** True if the loaded SF2 provides (bank,program). */
-	private boolean patchExists(int bank, int program)
+	/** Apply OSRS program mapping with correct 14-bit bank select (MSB/LSB). */
+	private void applyProgramChange(int chIndex, int osrsInstrument)
 	{
-		return availableBankProgram.isEmpty() || availableBankProgram.contains(bank + "-" + program);
+		// If SF2 doesn't have this patch, it falls back to bank 0: the same program, else the nearest one it has
+		int patch = patches.melodicPatch(osrsInstrument);
+		setBankAndProgram(chIndex, patch >> 7, patch & 0x7F); // CC0=MSB, CC32=LSB (derived inside)
 	}
 
 	/** Send proper bank select (MSB/LSB) + program change, with per-channel caching. */
-	private void setBankAndProgram(MidiChannel ch, int chIndex, int bank, int program)
+	private void setBankAndProgram(int chIndex, int bank, int program)
 	{
 		if (chIndex < 0 || chIndex >= chBank.length) return;
 
@@ -321,129 +671,175 @@ public class midisyncplugin extends Plugin
 		int msb = (bank >> 7) & 0x7F;  // high 7 bits
 		int lsb = bank & 0x7F;         // low 7 bits
 
-		ch.controlChange(0, msb);      // Bank Select MSB
-		ch.controlChange(32, lsb);     // Bank Select LSB
-		ch.programChange(program);
+		sendChannelMessage(ShortMessage.CONTROL_CHANGE, chIndex, 0, msb);   // Bank Select MSB
+		sendChannelMessage(ShortMessage.CONTROL_CHANGE, chIndex, 32, lsb);  // Bank Select LSB
+		sendChannelMessage(ShortMessage.PROGRAM_CHANGE, chIndex, program, 0);
 
 		chBank[chIndex] = bank;
 		chProgram[chIndex] = program;
 	}
 
-	private void scheduleNoteDynamic(danielMidiNote note, double tickDurationMs)
+	/** Queue note i of the view on the dispatcher, placed within the current tick by its estimated start and length. */
+	private void scheduleNoteDynamic(midisynctimeline view, int index, long tickStartNanos, double periodMs)
 	{
-		if (config.osrsOnly() && !OSRSMidiMapper.isOsrsInstrument(note.getInstrument()) && note.getChannel() != 9)
-			return;
-
-		if (noteScheduler.isShutdown() || noteScheduler.isTerminated())
-			noteScheduler = Executors.newSingleThreadScheduledExecutor();
+		midisynctrack track = view.getTrack();
+		int instrument = track.program(index);
+		int noteChannel = track.channel(index);
 
-		double startOffset = (note.getStartTickFraction() - gameTickCounter) * tickDurationMs;
-		double endOffset   = (note.getEndTickFraction()   - gameTickCounter) * tickDurationMs;
+		if (settings.isOsrsOnly() && !OSRSMidiMapper.isOsrsInstrument(instrument) && noteChannel != 9)
+			return;
+		if (channels == null) return; // synth failed to (re)open
 
-		MidiChannel channel;
-		int chIndex;
+		double startOffset = (view.startTick(index) - gameTickCounter) * periodMs;
+		double endOffset   = (view.endTick(index)   - gameTickCounter) * periodMs;
 
-		if (note.getChannel() == 9)
+		midisyncchannelplan plan = track.getChannelPlan(channels.length);
+		int chIndex = plan.channel(index);
+		long startNanos = tickStartNanos + (long) (Math.max(0, startOffset) * 1_000_000);
+		// A channel time-shared between instruments switches in the gap, just before this note
+		if (plan.switchesProgram(index))
 		{
-			// Always play percussion on channel 9, and ensure a real kit is selected.
-			channel = channels[9];
-			chIndex = 9;
-			ensurePercussionKit(note.getInstrument());
+			notePatchSwitch(chIndex, instrument);
+			dispatcher.programChange(startNanos, chIndex, instrument);
 		}
+
+		// Velocity as written; the volume settings are channel and master controls (see applyMix)
+		int key = track.key(index);
+		dispatcher.noteOn(startNanos, chIndex, key, track.velocity(index));
+		dispatcher.noteOff(tickStartNanos + (long) (Math.max(0, endOffset) * 1_000_000), chIndex, key);
+	}
+
+	/**
+	 * Hand everything due by the next game tick, its downbeat included, to the synthesizer in one batch, timestamped
+	 * on its own clock, so Gervill places the notes inside its render loop instead of whenever a thread wakes up.
+	 * If the synth has no receiver or clock, the events stay queued and the dispatcher thread plays them.
+	 * The base is when the synth's clock was read (the tick's arrival); the horizon is the estimated end of the tick.
+	 */
+	private void sendTimestampedBatch(long baseNanos, long baseUs, long horizonNanos)
+	{
+		if (synthReceiver == null || baseUs < 0) return;
+
+		batchBaseNanos = baseNanos;
+		batchBaseUs = Math.max(baseUs, holdUntilUs);
+		dispatcher.drainUntil(horizonNanos, this::sendTimestamped);
+		batchHorizonUs = Math.max(batchHorizonUs, batchBaseUs + Math.max(0, horizonNanos - baseNanos) / 1000);
+	}
+
+	private void sendTimestamped(long deadlineNanos, int kind, int chIndex, int key, int velocity)
+	{
+		// Events left over from an earlier tick (e.g. note-offs) go out at the start of this batch
+		timedOutputStamp = batchBaseUs + Math.max(0, deadlineNanos - batchBaseNanos) / 1000;
+		if (kind == midisyncdispatcher.NOTE_ON) voices.noteOn(chIndex, key, velocity, timedOutput);
+		else if (kind == midisyncdispatcher.NOTE_OFF) voices.noteOff(chIndex, key, timedOutput);
 		else
 		{
-			channel = getChannelForInstrument(note.getInstrument());
-			chIndex = indexOfChannel(channel);
+			int patch = patches.melodicPatch(key);
+			sendTimed(ShortMessage.CONTROL_CHANGE, chIndex, 0, (patch >> 14) & 0x7F);
+			sendTimed(ShortMessage.CONTROL_CHANGE, chIndex, 32, (patch >> 7) & 0x7F);
+			sendTimed(ShortMessage.PROGRAM_CHANGE, chIndex, patch & 0x7F, 0);
 		}
+	}
 
-		int baseVelocity   = note.getVelocity();
-		int globalVolume   = config.midiVolume();
-		int channelVolume  = getChannelVolume(chIndex);
-
-		final int scaledVelocity = Math.max(
-				0,
-				Math.min(127, (int) (baseVelocity
-						* (channelVolume / 100.0)
-						* (globalVolume / 100.0)))
-		);
-
-		final int key = note.getKey();
+	private void sendTimed(int command, int chIndex, int key, int velocity)
+	{
+		try
+		{
+			synthReceiver.send(midisyncportmessage.of(command, chIndex, key, velocity), timedOutputStamp);
+		}
+		catch (InvalidMidiDataException | IllegalStateException e)
+		{
+			log.debug("Dropped timestamped note event: {}", e.getMessage());
+		}
+	}
 
-		noteScheduler.schedule(() -> channel.noteOn(key, scaledVelocity),
-				(long) Math.max(0, startOffset), TimeUnit.MILLISECONDS);
+	/**
+	 * Drop every note that hasn't played yet, live or pre-rendered. Events already queued inside the synth can't be taken back,
+	 * so an all-notes-off is queued behind them and new notes wait until it has passed. The tick clock keeps its
+	 * measured cadence: the game's ticks don't change with the track, and the clock restarts itself on a resync
+	 * or a new tick length.
+	 */
+	private void cancelPendingNotes()
+	{
+		dispatcher.clear();
+		stopPrerenderedAudio();
 
-		noteScheduler.schedule(() -> channel.noteOff(key),
-				(long) Math.max(0, endOffset), TimeUnit.MILLISECONDS);
+		if (synthReceiver != null && batchHorizonUs >= 0)
+		{
+			int channelCount = channels != null ? channels.length : 16;
+			for (int ch = 0; ch < channelCount; ch++)
+			{
+				try { synthReceiver.send(midisyncportmessage.of(ShortMessage.CONTROL_CHANGE, ch, 123, 0), batchHorizonUs); }
+				catch (InvalidMidiDataException | IllegalStateException ignored) { }
+			}
+			holdUntilUs = batchHorizonUs;
+		}
 	}
 
+	/** Called on the dispatcher thread when a note event is due. */
+	private void sendNote(int kind, int chIndex, int key, int velocity)
+	{
+		MidiChannel[] chs = channels;
+		if (chs == null || chIndex >= chs.length) return;
 
+		if (kind == midisyncdispatcher.NOTE_ON) voices.noteOn(chIndex, key, velocity, liveOutput);
+		else if (kind == midisyncdispatcher.NOTE_OFF) voices.noteOff(chIndex, key, liveOutput);
+		else
+		{
+			int patch = patches.melodicPatch(key);
+			chs[chIndex].controlChange(0, (patch >> 14) & 0x7F);
+			chs[chIndex].controlChange(32, (patch >> 7) & 0x7F);
+			chs[chIndex].programChange(patch & 0x7F);
+		}
+	}
 
-	/** Choose a valid drum kit patch present in the SF2 and lock it on channel 9. */
-	private void ensurePercussionKit(int desiredKitProgram)
+	/**
+	 * Note the bank/program a time-shared channel is about to switch to in the per-channel cache, so the plan isn't
+	 * re-sent over it. Done when the switch is staged, on the client thread, which is the only one touching the cache.
+	 */
+	private void notePatchSwitch(int chIndex, int osrsInstrument)
 	{
-		if (channels == null || channels.length <= 9 || channels[9] == null) return;
+		int patch = patches.melodicPatch(osrsInstrument);
+		chBank[chIndex] = patch >> 7;
+		chProgram[chIndex] = patch & 0x7F;
+	}
 
-		// If already set, we're done
-		if (percussionKitLocked && percussionBank >= 0 && percussionProgram >= 0)
-			return;
 
-		// Common banks where drum kits live in SF2s: 128 (GM), sometimes 1, sometimes 0.
-		int[] banksToTry = new int[] { 128, 1, 0 };
 
-		// Try the program the MIDI asked for on ch9, else fall back to common ones.
-		int[] progsToTry;
-		if (desiredKitProgram >= 0 && desiredKitProgram <= 127)
-			progsToTry = new int[] { desiredKitProgram, 0 };
-		else
-			progsToTry = new int[] { 0 };
+	/** Select a drum kit patch present in the SF2 on channel 9. */
+	private void applyPercussionKit(int desiredKitProgram)
+	{
+		if (channels.length <= 9 || channels[9] == null) return;
 
-		for (int bank : banksToTry)
+		int patch = patches.kitPatch(desiredKitProgram);
+		if (patch >= 0)
 		{
-			for (int prog : progsToTry)
-			{
-				if (patchExists(bank, prog))
-				{
-					setBankAndProgram(channels[9], 9, bank, prog);
-					percussionBank = bank;
-					percussionProgram = prog;
-					percussionKitLocked = true;
-					log.debug("Percussion kit set: bank={} program={}, requested={}", bank, prog, desiredKitProgram);
-					return;
-				}
-			}
+			setBankAndProgram(9, patch >> 7, patch & 0x7F);
+			log.debug("Percussion kit set: bank={} program={}, requested={}", patch >> 7, patch & 0x7F, desiredKitProgram);
+			return;
 		}
 
 		// Last resort: send only program change on ch9 (some synths ignore bank on ch9).
-		channels[9].programChange(Math.max(0, desiredKitProgram));
+		sendChannelMessage(ShortMessage.PROGRAM_CHANGE, 9, Math.max(0, desiredKitProgram), 0);
 		chProgram[9] = Math.max(0, desiredKitProgram);
-		percussionBank = -1;
-		percussionProgram = chProgram[9];
-		percussionKitLocked = true;
 		log.debug("Percussion kit fallback: program={} (bank not set or not found)", chProgram[9]);
 	}
 
-	/** Locate the index of a MidiChannel in the array (for caching). */
-	private int indexOfChannel(MidiChannel ch)
-	{
-		if (channels == null) return -1;
-		for (int i = 0; i < channels.length; i++)
-			if (channels[i] == ch) return i;
-		return -1;
-	}
-
-	private List<danielMidiNote> loadMidi(File midiFile, int bpm, double quantization) throws Exception
+	/**
+	 * Parse a MIDI file into packed note columns with raw MIDI ticks; quantization, tick length and speed
+	 * are applied by the timeline.
+	 */
+	static midisynctrack loadMidi(File midiFile) throws Exception
 	{
 		Sequence sequence = MidiSystem.getSequence(midiFile);
-		List<danielMidiNote> notes = new ArrayList<>();
+		midisynctrack.Builder notes = new midisynctrack.Builder();
 
-		int ppq = sequence.getResolution();
-		double microsPerQuarter = 60000000.0 / bpm;
-		double microsPerGameTick = config.tickDurationMs() * 1000;
-		double midiTicksPerGameTick = (ppq * microsPerGameTick) / microsPerQuarter;
+		// Note times follow the file's own tempo changes; the bpm setting only speeds up or slows down the whole track
+		midisynctempomap tempo = midisynctempomap.of(sequence);
 
 		int[] lastProgram = new int[16];
-		Arrays.fill(lastProgram, 0);
-		Map<Integer, danielMidiNote> activeNotes = new HashMap<>();
+		// Slot of the sounding note per (channel << 7 | key), -1 when silent
+		int[] activeNotes = new int[16 << 7];
+		Arrays.fill(activeNotes, -1);
 
 		for (Track track : sequence.getTracks())
 		{
@@ -453,8 +849,6 @@ public class midisyncplugin extends Plugin
 				MidiMessage message = event.getMessage();
 				long midiTick = event.getTick();
 
-				double tickFraction = midiTick / midiTicksPerGameTick;
-
 				if (message instanceof ShortMessage)
 				{
 					ShortMessage msg = (ShortMessage) message;
@@ -467,147 +861,292 @@ public class midisyncplugin extends Plugin
 
 					if (msg.getCommand() == ShortMessage.NOTE_ON && msg.getData2() > 0)
 					{
-						int key = msg.getData1();
-						int velocity = msg.getData2();
 						int channel = msg.getChannel();
-
-						danielMidiNote note;
-						if (channel == 9)
-						{
-							// Keep the KIT program seen on channel 9 so we can pick a matching drum kit.
-							int kitProgram = lastProgram[9]; // 0..127 if file set it; else 0
-							note = new danielMidiNote(key, velocity, channel, /*bank unused for ch9*/ 0, kitProgram);
-						}
-						else
-						{
-							int instrument = lastProgram[channel];
-							note = new danielMidiNote(
-									key, velocity, channel,
-									OSRSMidiMapper.mapBank(instrument), instrument
-							);
-						}
-
-						// Floor start to avoid skipping
-						note.setStartTickFraction(Math.floor(tickFraction / quantization) * quantization);
-						activeNotes.put((channel << 8) | key, note);
+						// On channel 9 this is the KIT program, so we can pick a matching drum kit.
+						int program = lastProgram[channel]; // 0..127 if file set it; else 0
+						activeNotes[(channel << 7) | msg.getData1()] =
+								notes.start(msg.getData1(), msg.getData2(), channel, program, midiTick);
 					}
 					else if ((msg.getCommand() == ShortMessage.NOTE_OFF) ||
 							(msg.getCommand() == ShortMessage.NOTE_ON && msg.getData2() == 0))
 					{
-						int key = (msg.getChannel() << 8) | msg.getData1();
-						danielMidiNote note = activeNotes.remove(key);
-						if (note != null)
+						int key = (msg.getChannel() << 7) | msg.getData1();
+						int slot = activeNotes[key];
+						if (slot != -1)
 						{
-							// Ceil end to ensure note plays fully
-							note.setEndTickFraction(Math.ceil(tickFraction / quantization) * quantization);
-							notes.add(note);
+							notes.end(slot, midiTick);
+							activeNotes[key] = -1;
 						}
 					}
 				}
 			}
 		}
 
-		return notes;
+		return notes.build(tempo);
 	}
 
 	private void reQuantizeCurrentTrack()
 	{
-		if (notes == null) return;
-		double divisor = configQuantizationValue();
-		for (danielMidiNote note : notes)
+		if (timeline == null) return;
+
+		// A view derived from the raw MIDI ticks; then put the cursor back where we are (past the ticks already queued).
+		// Cached tracks, this one included, pick up the new settings when they are next played (see quantized).
+		midisynctimeline previous = timeline;
+		timeline = quantized(timeline);
+		// At another speed or tick length the same point of the file falls on another game tick
+		gameTickCounter *= previous.getMicrosPerGameTick() / timeline.getMicrosPerGameTick();
+		playCursor = timeline.seek(gameTickCounter + committedAhead);
+	}
+
+	/**
+	 * Compile one track, from the on-disk track cache when the file is unchanged.
+	 * Runs on the prefetch/preload workers, never on the client thread.
+	 */
+	private midisynctimeline parseTrack(midisynccatalog.Entry entry) throws Exception
+	{
+		midisynctrack track = diskCache.load(entry.getFile());
+		if (track == null)
 		{
-			note.setStartTickFraction(Math.floor(note.getStartTickFraction() / divisor) * divisor);
-			note.setEndTickFraction(Math.ceil(note.getEndTickFraction() / divisor) * divisor);
+			track = loadMidi(entry.getFile());
+			diskCache.store(entry.getFile(), track);
+			log.info("Loaded {} notes from {}", track.size(), entry.getName());
 		}
+		return view(track);
 	}
 
-	public void skipTrack(boolean forward)
+	/**
+	 * The track of a cached timeline, viewed at the current quantization divisor, tick length and speed; null stays null.
+	 * Cached timelines may have been made under other settings, so whatever plays goes through here first.
+	 */
+	private midisynctimeline quantized(midisynctimeline cached)
 	{
-		if (trackNotes == null || trackNotes.isEmpty()) return;
+		return cached != null ? view(cached.getTrack()) : null;
+	}
 
-		stopAllNotes();
-		noteScheduler.shutdownNow();
-		noteScheduler = Executors.newSingleThreadScheduledExecutor();
+	private midisynctimeline view(midisynctrack track)
+	{
+		midisyncsettings s = settings;
+		return track.view(s.getQuantizeDivisor(), s.getMicrosPerGameTick());
+	}
 
-		if (config.shuffleTracks())
+	/** Prefetch worker: compile the track, then load the SoundFont instruments it plays before it can start. */
+	private midisynctimeline prefetchTrack(midisynccatalog.Entry entry) throws Exception
+	{
+		midisynctimeline parsed = parseTrack(entry);
+		midisyncpatchloader loader = patchLoader;
+		if (loader != null) loader.requireNow(entry.getName(), parsed.getTrack(), settings.isOsrsOnly());
+		return parsed;
+	}
+
+	/** Make sure the current track's instruments are loaded (it may have been parsed by a preload, or before a synth reopen). */
+	private void requireInstruments()
+	{
+		midisyncpatchloader loader = patchLoader;
+		if (loader != null && timeline != null && currentTrackIndex < playlist.size())
+			loader.require(playlist.get(currentTrackIndex).getName(), timeline.getTrack(), settings.isOsrsOnly());
+	}
+
+	/**
+	 * Make the given track current at the given tick. If it hasn't been parsed yet it is queued on the
+	 * prefetch worker and starts on the first tick after it is ready and the SoundFont instruments have been
+	 * swapped for it. False if the file is known to be broken.
+	 */
+	private boolean selectTrack(int index, double tick)
+	{
+		midisynccatalog.Entry entry = playlist.get(index);
+		if (prefetcher.hasFailed(entry.getName())) return false;
+
+		if (playlist.hasKept() && !playlist.isKept(index))
 		{
-			Random rand = new Random();
-			int nextIndex;
-			do { nextIndex = rand.nextInt(trackNotes.size()); }
-			while (nextIndex == currentTrackIndex && trackNotes.size() > 1);
-			currentTrackIndex = nextIndex;
+			// Moving off a track that was only kept because it was playing; it leaves the rotation now
+			playlist = playlist.withoutKept();
+			index = playlist.indexOfName(entry.getName());
 		}
-		else
+
+		currentTrackIndex = index;
+		gameTickCounter = tick;
+		timeline = quantized(trackCache.get(entry.getName()));
+		channelPlanApplied = false;
+		committedAhead = 0;
+		if (timeline == null) prefetcher.request(entry);
+		else requireInstruments();
+
+		List<String> pins = updatePredictions();
+		// Unloading silences the synth, so instruments are only dropped here, on a track change, and the track
+		// doesn't start until that is over (see activatePendingTrack)
+		patchSwap = patchLoader != null ? patchLoader.retain(pins) : null;
+		pendingTrack = timeline == null || patchSwap != null && !patchSwap.isDone();
+		if (pendingTrack) timeline = null;
+		else playCursor = timeline.seek(tick);
+		return true;
+	}
+
+	/**
+	 * Swap in the queued track once the worker has delivered it and its instruments are in; move on if it
+	 * turned out to be broken.
+	 */
+	private void activatePendingTrack()
+	{
+		midisynccatalog.Entry entry = playlist.get(currentTrackIndex);
+		if (prefetcher.hasFailed(entry.getName()))
+		{
+			pendingTrack = false;
+			if (playlist.size() > 1) skipTrack(true);
+			return;
+		}
+
+		midisynctimeline ready = trackCache.get(entry.getName());
+		if (ready == null)
+		{
+			prefetcher.request(entry); // no-op while it is still in flight
+			return;
+		}
+		if (patchSwap != null && !patchSwap.isDone()) return;
+
+		timeline = quantized(ready);
+		playCursor = timeline.seek(gameTickCounter);
+		pendingTrack = false;
+		channelPlanApplied = false;
+		committedAhead = 0;
+		requireInstruments();
+	}
+
+	/**
+	 * Pre-draw the next shuffle pick, pin the current and predicted tracks in the cache,
+	 * and start parsing the next one in the background while this one plays. Returns the pinned track names.
+	 */
+	private List<String> updatePredictions()
+	{
+		int size = playlist.size();
+		List<String> pins = new ArrayList<>(3);
+		pins.add(playlist.get(currentTrackIndex).getName());
+
+		shuffleNextIndex = -1;
+		if (size > 1)
 		{
-			if (forward)
-				currentTrackIndex = (currentTrackIndex + 1) % trackNotes.size();
+			int nextIndex;
+			if (config.shuffleTracks())
+			{
+				shuffleNextIndex = drawShuffleIndex(currentTrackIndex);
+				nextIndex = shuffleNextIndex;
+			}
 			else
-				currentTrackIndex = (currentTrackIndex - 1 + trackNotes.size()) % trackNotes.size();
+			{
+				nextIndex = (currentTrackIndex + 1) % size;
+				pins.add(playlist.get((currentTrackIndex - 1 + size) % size).getName());
+			}
+			pins.add(playlist.get(nextIndex).getName());
+			trackCache.pin(pins);
+			prefetcher.request(playlist.get(nextIndex));
+			return pins;
 		}
+		trackCache.pin(pins);
+		return pins;
+	}
 
-		notes = trackNotes.get(currentTrackIndex);
-		gameTickCounter = 0.0;
-		log.info("Skipped to track {}: {}", currentTrackIndex, trackNames.get(currentTrackIndex));
+	/** Index that follows the given one, honouring shuffle (and its pre-drawn pick). */
+	private int nextTrackIndex(int from, boolean forward)
+	{
+		int size = playlist.size();
+		if (config.shuffleTracks())
+		{
+			if (from == currentTrackIndex && shuffleNextIndex >= 0 && shuffleNextIndex < size)
+				return shuffleNextIndex;
+			return drawShuffleIndex(from);
+		}
+		return forward ? (from + 1) % size : (from - 1 + size) % size;
 	}
 
-	private void stopAllNotes()
+	private int drawShuffleIndex(int exclude)
 	{
-		if (channels != null)
+		int size = playlist.size();
+		if (size <= 1) return 0;
+		int nextIndex;
+		do { nextIndex = random.nextInt(size); }
+		while (nextIndex == exclude);
+		return nextIndex;
+	}
+
+	public void skipTrack(boolean forward)
+	{
+		if (playlist.isEmpty()) return;
+
+		cancelPendingNotes();
+		stopAllNotes();
+
+		// Step past files known to be broken, but give up after one lap of the playlist.
+		// A track that isn't parsed yet is queued and starts on a later tick instead of blocking here.
+		int index = currentTrackIndex;
+		for (int tries = 0; tries < playlist.size(); tries++)
 		{
-			for (MidiChannel ch : channels)
-				if (ch != null)
-					ch.allNotesOff();
+			index = nextTrackIndex(index, forward);
+			if (selectTrack(index, 0.0))
+			{
+				log.info("Skipped to track {}: {}", currentTrackIndex, playlist.get(currentTrackIndex).getName());
+				return;
+			}
 		}
+	}
+
+	private void stopAllNotes()
+	{
+		voices.reset();
 		resetChannelState();
 	}
 
 	private void resetChannelState()
 	{
-		instrumentChannelMap.clear();
-		nextAvailableChannel = 0;
 		Arrays.fill(chBank, -1);
 		Arrays.fill(chProgram, -1);
-		percussionKitLocked = false;
-		percussionBank = -1;
-		percussionProgram = -1;
+		channelPlanApplied = false;
 
 		if (channels != null)
 		{
-			for (MidiChannel ch : channels)
+			for (int ch = 0; ch < channels.length; ch++)
 			{
-				ch.allNotesOff();
-				ch.resetAllControllers();
+				sendChannelMessage(ShortMessage.CONTROL_CHANGE, ch, 123, 0); // all notes off
+				sendChannelMessage(ShortMessage.CONTROL_CHANGE, ch, 121, 0); // reset all controllers
 			}
+			applyMix();
 		}
 	}
 
-	// ====== Data classes / helpers ======
-
-	public static class danielMidiNote
+	/**
+	 * When channel resets, volumes and program changes take effect. In timestamped mode after a cancel that is
+	 * the end of the cancelled batch, behind the old track's notes still queued inside the synth, so those don't
+	 * play on the next track's instruments; otherwise now (-1).
+	 */
+	private long controlStamp()
 	{
-		private final int key, velocity, channel, bank, instrument;
-		private double startTickFraction, endTickFraction;
+		return settings.isTimestampedPlayback() && synthReceiver != null ? holdUntilUs : -1;
+	}
 
-		public danielMidiNote(int key, int velocity, int channel, int bank, int instrument)
+	/** Send a control or program change to a channel of either port, at {@link #controlStamp()}. */
+	private void sendChannelMessage(int command, int chIndex, int data1, int data2)
+	{
+		long stamp = controlStamp();
+		if (stamp < 0)
 		{
-			this.key = key;
-			this.velocity = velocity;
-			this.channel = channel;
-			this.bank = bank;
-			this.instrument = instrument;
+			MidiChannel ch = channels[chIndex];
+			if (command == ShortMessage.PROGRAM_CHANGE) ch.programChange(data1);
+			else if (data1 == 123) ch.allNotesOff();
+			else if (data1 == 121) ch.resetAllControllers();
+			else ch.controlChange(data1, data2);
+			return;
 		}
 
-		public int getKey() { return key; }
-		public int getVelocity() { return velocity; }
-		public int getChannel() { return channel; }
-		public int getBank() { return bank; }
-		public int getInstrument() { return instrument; }
-		public double getStartTickFraction() { return startTickFraction; }
-		public void setStartTickFraction(double val) { startTickFraction = val; }
-		public double getEndTickFraction() { return endTickFraction; }
-		public void setEndTickFraction(double val) { endTickFraction = val; }
+		try
+		{
+			synthReceiver.send(midisyncportmessage.of(command, chIndex, data1, data2), stamp);
+		}
+		catch (InvalidMidiDataException | IllegalStateException e)
+		{
+			log.debug("Dropped timestamped channel message: {}", e.getMessage());
+		}
 	}
 
+	// ====== Data classes / helpers ======
+
 	public static class OSRSMidiMapper
 	{
 		public static final int MELODIC_BANK = 0;
@@ -671,118 +1210,221 @@ public class midisyncplugin extends Plugin
 	// ====== Overlay getters ======
 
 	public String getCurrentTrackName() {
-		if (trackNames == null || currentTrackIndex >= trackNames.size()) return "N/A";
-		return trackNames.get(currentTrackIndex);
+		if (currentTrackIndex >= playlist.size()) return "N/A";
+		return playlist.get(currentTrackIndex).getName();
 	}
 
 	public int getCurrentTrackIndexDisplay() { return currentTrackIndex + 1; }
 
-	public int getTrackCount() { return trackNotes != null ? trackNotes.size() : 0; }
+	public int getTrackCount() { return playlist.size(); }
 
 	public int getNotesRemaining() {
-		if (notes == null) return 0;
-		int remaining = 0;
-		double tick = gameTickCounter;
-		for (danielMidiNote note : notes)
-			if (note.getEndTickFraction() > tick) remaining++;
-		return remaining;
+		if (timeline == null) return 0;
+		return timeline.notesRemaining(gameTickCounter);
 	}
 
 	private void loadTracks()
 	{
+		if (prefetcher == null) return; // plugin isn't running
+
 		File folder = new File(config.midiFolder());
-		if (!folder.exists() || !folder.isDirectory()) return;
+		catalog = midisynccatalog.scan(folder);
+		if (folder.isDirectory()) diskCache.prune(catalog.files()); // entries of files deleted while we weren't running
+		playlist = midisyncplaylist.of(catalog, trackFilter(), null);
+		log.info("Indexed {} MIDI tracks in {}, {} in rotation", catalog.size(), config.midiFolder(), playlist.size());
+		if (config.preloadTracks() && !playlist.isEmpty()) preloadLibrary();
+
+		startFirstTrack();
+	}
 
-		File[] midiFiles = folder.listFiles((dir, name) -> name.toLowerCase().endsWith(".mid"));
-		if (midiFiles == null || midiFiles.length == 0) return;
+	/**
+	 * Whitelist/blacklist rule for which track numbers are in the rotation.
+	 * The lists are only re-parsed when one of the settings actually changed.
+	 */
+	private IntPredicate trackFilter()
+	{
+		String key = config.useWhitelist() + "|" + config.trackWhitelist() + "|" + config.trackBlacklist();
+		if (key.equals(trackFilterKey)) return trackFilter;
 
 		Set<Integer> whitelist = parseTrackList(config.trackWhitelist());
 		Set<Integer> blacklist = parseTrackList(config.trackBlacklist());
+		boolean useWhitelist = config.useWhitelist();
 
-		Arrays.sort(midiFiles, Comparator.comparingInt(f -> {
-			try { return Integer.parseInt(f.getName().split(" - ")[0]); }
-			catch (NumberFormatException e) { return Integer.MAX_VALUE; }
-		}));
+		trackFilterKey = key;
+		trackFilter = trackNumber ->
+		{
+			// apply whitelist only if enabled
+			if (useWhitelist && !whitelist.isEmpty() && !whitelist.contains(trackNumber))
+				return false;
+
+			// blacklist always applies
+			return !blacklist.contains(trackNumber);
+		};
+		return trackFilter;
+	}
+
+	/**
+	 * Re-apply the whitelist/blacklist to the loaded library. Only the playlist view is rebuilt:
+	 * nothing is re-parsed and the current track keeps playing, even if the new filter excludes it.
+	 */
+	private void rebuildPlaylist()
+	{
+		if (prefetcher == null) return; // plugin isn't running
 
-		trackNames = new ArrayList<>();
-		trackNotes = new ArrayList<>();
-		Map<Integer, Integer> trackNumberToIndex = new HashMap<>();
-		double quantization = configQuantizationValue();
+		String currentName = currentTrackIndex < playlist.size() ? playlist.get(currentTrackIndex).getName() : null;
+		playlist = midisyncplaylist.of(catalog, trackFilter(), currentName);
 
-		for (File midiFile : midiFiles)
+		if (currentName == null)
 		{
-			int trackNumber;
-			try { trackNumber = Integer.parseInt(midiFile.getName().split(" - ")[0]); }
-			catch (NumberFormatException e) { trackNumber = -1; }
+			// Nothing was in the rotation before, so start from scratch
+			startFirstTrack();
+			return;
+		}
 
-			boolean skip = false;
+		currentTrackIndex = playlist.indexOfName(currentName);
+		// Tracks newly let in by the filter get parsed too
+		if (config.preloadTracks()) preloadLibrary();
+		updatePredictions();
+	}
 
-			// apply whitelist only if enabled
-			if (config.useWhitelist() && !whitelist.isEmpty() && !whitelist.contains(trackNumber))
-				skip = true;
+	private void startFirstTrack()
+	{
+		currentTrackIndex = 0;
+		timeline = null;
+		pendingTrack = false;
+		playCursor = 0;
+		gameTickCounter = 0.0;
+		if (playlist.isEmpty()) return;
 
-			// blacklist always applies
-			if (blacklist.contains(trackNumber))
-				skip = true;
+		// Start at the configured track, or the first one after it that isn't known to be broken
+		int index = Math.max(0, playlist.indexOfTrackNumber(config.startingTrack()));
+		for (int tries = 0; tries < playlist.size(); tries++)
+		{
+			if (selectTrack(index, 0.0)) return;
+			index = (index + 1) % playlist.size();
+		}
+	}
 
-			if (skip) continue;
+	private void startFolderWatcher()
+	{
+		File folder = new File(config.midiFolder());
+		if (!folder.isDirectory()) return;
 
-			try
-			{
-				List<danielMidiNote> fileNotes = loadMidi(midiFile, config.bpm(), quantization);
-				trackNotes.add(fileNotes);
-				trackNames.add(midiFile.getName());
-				if (trackNumber != -1)
-					trackNumberToIndex.put(trackNumber, trackNotes.size() - 1);
-				log.info("Loaded {} notes from {}", fileNotes.size(), midiFile.getName());
-			}
-			catch (Exception e)
-			{
-				log.warn("Failed to load MIDI {}: {}", midiFile.getName(), e.toString());
-			}
+		folderWatcher = new midisyncfolderwatcher(folder.toPath(),
+				(changed, overflow) -> clientThread.invokeLater(() -> applyFolderChanges(changed, overflow)));
+		try
+		{
+			folderWatcher.start();
 		}
+		catch (IOException e)
+		{
+			log.warn("Cannot watch MIDI folder {}: {}", folder, e.toString());
+			folderWatcher = null;
+		}
+	}
 
-		int startingTrackNumber = config.startingTrack();
-		Integer startIndex = trackNumberToIndex.getOrDefault(startingTrackNumber, 0);
+	/**
+	 * Fold a batch of added/removed/rewritten files into the catalog. Only the changed tracks are dropped
+	 * from the caches, the current one included: it keeps playing from our own timeline until we move on,
+	 * and is parsed again from the new file the next time it comes up.
+	 */
+	private void applyFolderChanges(Set<String> changedNames, boolean overflow)
+	{
+		if (prefetcher == null) return; // stopped meanwhile
 
-		currentTrackIndex = startIndex;
-		notes = !trackNotes.isEmpty() ? trackNotes.get(currentTrackIndex) : null;
-		gameTickCounter = 0.0;
+		midisynccatalog.Entry current = currentTrackIndex < playlist.size() ? playlist.get(currentTrackIndex) : null;
+		String currentName = current != null ? current.getName() : null;
+
+		if (overflow)
+		{
+			// Events were lost, so any parsed track may be stale
+			trackCache.retainOnly(currentName);
+		}
+		for (String name : changedNames)
+		{
+			trackCache.remove(name);
+			prefetcher.forget(name);
+		}
+
+		File folder = new File(config.midiFolder());
+		midisynccatalog updated = midisynccatalog.scan(folder);
+		if (folder.isDirectory()) diskCache.prune(updated.files());
+		if (current != null && updated.indexOfName(currentName) == -1)
+			updated = updated.withEntry(current); // keep the playing track listed until we move on
+		catalog = updated;
+		playlist = midisyncplaylist.of(catalog, trackFilter(), currentName);
+		log.info("MIDI folder changed ({} files), {} tracks indexed", changedNames.size(), catalog.size());
+
+		if (current == null)
+		{
+			// Nothing was playing (e.g. the folder was empty), so start from scratch
+			startFirstTrack();
+			return;
+		}
+
+		currentTrackIndex = playlist.indexOfName(currentName);
+		if (config.preloadTracks()) preloadLibrary();
+		updatePredictions();
 	}
-	private String resetTracks()
+	/** Parse every track in the rotation in the background on a bounded fork-join pool, filling the track cache. */
+	private void preloadLibrary()
 	{
-		stopAllNotes();
+		cancelPreload();
+		trackCache.setCapacity(cacheCapacity());
+
+		midisynclibraryloader loader = new midisynclibraryloader();
+		midisyncprefetcher activePrefetcher = prefetcher;
+		libraryLoader = loader;
+		loader.load(playlist, trackCache, this::parseTrack)
+				.whenComplete((report, error) -> {
+					loader.shutdown();
+					if (report == null) return; // cancelled
+					for (midisyncloadreport.Failure failure : report.getFailures())
+						activePrefetcher.markFailed(failure.getName());
+					log.info("Preloaded MIDI library: {}", report);
+				});
+	}
 
-		String oldTrackName = (trackNames != null && currentTrackIndex < trackNames.size())
-				? trackNames.get(currentTrackIndex)
-				: null;
+	private void cancelPreload()
+	{
+		if (libraryLoader != null)
+		{
+			libraryLoader.shutdown();
+			libraryLoader = null;
+		}
+	}
 
-		if (notes != null) notes.clear();
-		if (trackNotes != null) trackNotes.clear();
+	/** With preloading on, the cache must hold the whole rotation or the LRU would evict what we just parsed. */
+	private int cacheCapacity()
+	{
+		int configured = config.trackCacheSize();
+		return config.preloadTracks() ? Math.max(configured, playlist.size()) : configured;
+	}
+
+	private void resetTracks()
+	{
+		cancelPendingNotes();
+		stopAllNotes();
+		cancelPreload();
 
-		notes = null;
-		trackNotes = null;
-		trackNames = null;
+		timeline = null;
+		pendingTrack = false;
+		catalog = midisynccatalog.empty();
+		playlist = midisyncplaylist.empty();
+		playCursor = 0;
 		currentTrackIndex = 0;
 		gameTickCounter = 0.0;
 
-		noteScheduler.shutdownNow();
-		noteScheduler = Executors.newSingleThreadScheduledExecutor();
-
-		return oldTrackName;
 	}
 	private void addCurrentTrackToWhitelist()
 	{
-		if (trackNames == null || currentTrackIndex >= trackNames.size())
+		if (currentTrackIndex >= playlist.size())
 			return;
 
-		String currentTrackName = trackNames.get(currentTrackIndex);
-		double currentTick = gameTickCounter; // save play position
+		String currentTrackName = playlist.get(currentTrackIndex).getName();
 
-		int trackNumber;
-		try {
-			trackNumber = Integer.parseInt(currentTrackName.split(" - ")[0]);
-		} catch (NumberFormatException e) {
+		int trackNumber = playlist.get(currentTrackIndex).getTrackNumber();
+		if (trackNumber == -1) {
 			log.warn("Cannot add track to whitelist, invalid track number: {}", currentTrackName);
 			return;
 		}
@@ -799,31 +1441,17 @@ public class midisyncplugin extends Plugin
 		for (int n : whitelist)
 			sb.append(n).append(",");
 		if (sb.length() > 0) sb.setLength(sb.length() - 1);
-		configManager.setConfiguration("danielPlugin", "trackWhitelist", sb.toString());
+		configManager.setConfiguration(midisyncconfig.GROUP, "trackWhitelist", sb.toString());
 
 		log.info("Added track {} to whitelist", trackNumber);
 
-		// Reload tracks immediately
-		resetTracks();
-		loadTracks();
-
-		// Restore previous track and its play position if still available
-		if (trackNames != null)
-		{
-			int idx = trackNames.indexOf(currentTrackName);
-			if (idx != -1)
-			{
-				currentTrackIndex = idx;
-				notes = trackNotes.get(idx);
-				gameTickCounter = currentTick; // restore play position
-				log.info("Restored track after whitelist update: {} at tick {}", currentTrackName, currentTick);
-			}
-		}
+		// Only the rotation changes; the current track keeps playing where it is
+		rebuildPlaylist();
 	}
 	// Toggle shuffle setting
 	public void toggleShuffle()
 	{
-		configManager.setConfiguration("danielPlugin", "shuffleTracks", !config.shuffleTracks());
+		configManager.setConfiguration(midisyncconfig.GROUP, "shuffleTracks", !config.shuffleTracks());
 	}
 
 	// Add current track to whitelist (called from overlay)
@@ -837,6 +1465,25 @@ public class midisyncplugin extends Plugin
 
 	public double getGameTickCounter() { return gameTickCounter; }
 
-	public String getSf2Status() { return sf2Status; }
+	/** Measured length of a game tick. */
+	public double getTickPeriodMs() { return tickClock.getPeriodMs(); }
+
+	/** Ticks that arrived too late for the tick clock to filter. */
+	public int getTickStalls() { return tickClock.getStalls(); }
+
+	/** Ticks that arrived too early for the tick clock to filter. */
+	public int getTickBursts() { return tickClock.getBursts(); }
+
+	public int getActiveVoices() { return voices.getActive(); }
+
+	public int getVoiceBudget() { return voices.getBudget(); }
+
+	public long getStolenVoices() { return voices.getStolen(); }
+
+	public String getSf2Status()
+	{
+		midisyncpatchloader loader = patchLoader;
+		return loader != null ? sf2Status + ", " + loader.getLoadedCount() + " loaded" : sf2Status;
+	}
 
 }
@@ -0,0 +1,44 @@
+package com.midisync;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.ShortMessage;
+
+/**
+ * Channel message for the synth's second port (channels 16-31). A plain ShortMessage only has 4 bits of channel;
+ * Gervill's receiver reads the full channel from {@link #getChannel()} and keeps it when it queues a clone.
+ */
+final class midisyncportmessage extends ShortMessage
+{
+	private final int channel;
+
+	private midisyncportmessage(int command, int channel, int data1, int data2) throws InvalidMidiDataException
+	{
+		super.setMessage(command, channel & 0x0F, data1, data2);
+		this.channel = channel;
+	}
+
+	/** A message for any channel of either port; a plain ShortMessage for the first. */
+	static ShortMessage of(int command, int channel, int data1, int data2) throws InvalidMidiDataException
+	{
+		return channel < 16 ? new ShortMessage(command, channel, data1, data2) : new midisyncportmessage(command, channel, data1, data2);
+	}
+
+	@Override
+	public int getChannel()
+	{
+		return channel;
+	}
+
+	@Override
+	public Object clone()
+	{
+		try
+		{
+			return new midisyncportmessage(getCommand(), channel, getData1(), getData2());
+		}
+		catch (InvalidMidiDataException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+}
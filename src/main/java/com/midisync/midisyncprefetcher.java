@@ -0,0 +1,82 @@
+package com.midisync;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Parses and compiles tracks on a background worker so the client thread never waits on MidiSystem.getSequence.
+ * Finished timelines go straight into the track cache; failures are remembered so a broken file isn't retried every tick.
+ */
+@Slf4j
+public final class midisyncprefetcher
+{
+	public interface Loader
+	{
+		midisynctimeline load(midisynccatalog.Entry entry) throws Exception;
+	}
+
+	private final midisynctrackcache cache;
+	private final Loader loader;
+	private final ExecutorService worker = Executors.newSingleThreadExecutor(r -> {
+		Thread t = new Thread(r, "midisync-prefetch");
+		t.setDaemon(true);
+		t.setPriority(Thread.MIN_PRIORITY);
+		return t;
+	});
+
+	private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+	private final Set<String> failed = ConcurrentHashMap.newKeySet();
+
+	public midisyncprefetcher(midisynctrackcache cache, Loader loader)
+	{
+		this.cache = cache;
+		this.loader = loader;
+	}
+
+	/** Queue a track for parsing unless it is already cached, queued, or known to be broken. */
+	public void request(midisynccatalog.Entry entry)
+	{
+		String name = entry.getName();
+		if (cache.contains(name) || failed.contains(name) || worker.isShutdown() || !inFlight.add(name))
+			return;
+
+		long version = cache.version(name);
+		worker.execute(() -> {
+			try
+			{
+				// Dropped if the file changed while we parsed it; the next request parses it again
+				cache.put(name, loader.load(entry), version);
+			}
+			catch (Exception e)
+			{
+				failed.add(name);
+				log.warn("Failed to load MIDI {}: {}", name, e.toString());
+			}
+			finally
+			{
+				inFlight.remove(name);
+			}
+		});
+	}
+
+	/** Record a failure found elsewhere (e.g. by a library preload) so selection skips the file. */
+	public void markFailed(String name) { failed.add(name); }
+
+	/** Forget a recorded failure, e.g. after the file was replaced on disk. */
+	public void forget(String name) { failed.remove(name); }
+
+	public boolean hasFailed(String name) { return failed.contains(name); }
+
+	public boolean isLoading(String name) { return inFlight.contains(name); }
+
+	public void shutdown()
+	{
+		worker.shutdownNow();
+		inFlight.clear();
+		failed.clear();
+	}
+}
@@ -0,0 +1,279 @@
+package com.midisync;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.sound.midi.Instrument;
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Synthesizer;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Headless renderer: plays a compiled track through Gervill's offline stream instead of the sound card,
+ * as fast as the CPU allows. Notes are handed over tick by tick exactly like the live plugin does on each
+ * GameTick, but stamped on the stream's own sample clock, so the output is the same on every run.
+ *
+ * Gervill only exposes the stream through {@link midisyncgervill}; when that is unavailable so is rendering.
+ */
+@Slf4j
+public final class midisyncrenderer
+{
+	public static final AudioFormat DEFAULT_FORMAT = new AudioFormat(44100f, 16, 2, true, false);
+
+	/** Audio kept after the last note ends so releases and reverb aren't cut off. */
+	private static final double TAIL_MS = 2000.0;
+
+	/** How far from a scheduled onset a detected one may be and still count as that note's. */
+	private static final double ONSET_WINDOW_MS = 50.0;
+
+	private final midisyncsoundfont soundFont; // null = synth default bank
+	private final AudioFormat format;
+	private final boolean osrsOnly;
+	private final int[] channelVolumes; // percent per output channel, sent as CC7 like live playback
+
+	public midisyncrenderer(midisyncsoundfont soundFont, AudioFormat format, boolean osrsOnly, int[] channelVolumes)
+	{
+		this.soundFont = soundFont;
+		this.format = format;
+		this.osrsOnly = osrsOnly;
+		this.channelVolumes = channelVolumes.clone();
+	}
+
+	/** Whether this JVM lets us open Gervill's offline stream. */
+	public static boolean isAvailable() { return midisyncgervill.isAvailable(); }
+
+	public AudioFormat getFormat() { return format; }
+
+	/** Render the whole timeline to a 16-bit PCM WAV file; the file is moved into place once complete. */
+	public midisyncrenderreport renderToWav(midisynctimeline timeline, double tickDurationMs, File wavFile) throws Exception
+	{
+		Path dir = wavFile.getAbsoluteFile().getParentFile().toPath();
+		Files.createDirectories(dir);
+		Path tmp = Files.createTempFile(dir, "render", ".tmp");
+		try
+		{
+			midisyncrenderreport report;
+			try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))
+			{
+				out.write(wavHeader(frameAt(totalTicks(timeline, tickDurationMs), tickDurationMs)));
+				report = render(timeline, tickDurationMs, out, wavFile);
+			}
+			if (Thread.currentThread().isInterrupted()) throw new InterruptedException("Render cancelled");
+			Files.move(tmp, wavFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			return report;
+		}
+		finally
+		{
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	/**
+	 * Render the timeline as raw PCM in {@link #getFormat()}, one simulated game tick of frames at a time.
+	 * Onsets are detected in the PCM as it is written and compared with the frames the notes were scheduled at.
+	 * Stops early (without error) if the thread is interrupted.
+	 */
+	public midisyncrenderreport render(midisynctimeline timeline, double tickDurationMs, OutputStream pcmOut, File file) throws Exception
+	{
+		if (format.getSampleSizeInBits() != 16)
+			throw new IllegalArgumentException("Only 16-bit PCM is supported, got " + format);
+
+		long startMs = System.currentTimeMillis();
+		Synthesizer synth = MidiSystem.getSynthesizer();
+		Map<String, Object> info = new HashMap<>();
+		info.put("midi channels", midisyncchannelplan.MAX_CHANNELS);
+		AudioInputStream stream = midisyncgervill.openStream(synth, format, info);
+		try
+		{
+			if (soundFont != null)
+			{
+				// Own soundbank, so the samples loaded for this render are dropped with it
+				Map<Integer, Instrument> instruments = midisyncsoundfont.instruments(soundFont.openSoundbank());
+				for (int id : soundFont.presetsFor(timeline.getTrack(), osrsOnly))
+				{
+					Instrument instrument = instruments.get(id);
+					if (instrument != null) synth.loadInstrument(instrument);
+				}
+			}
+
+			Receiver receiver = synth.getReceiver();
+			ChannelOutput plan = new ChannelOutput(receiver, timeline.getTrack());
+			int frameSize = format.getFrameSize();
+			byte[] buffer = new byte[frameSize * 4096];
+			midisynconsetdetector detector = new midisynconsetdetector(format);
+
+			int ticks = totalTicks(timeline, tickDurationMs);
+			long[] onsets = new long[timeline.size()];
+			int onsetCount = 0;
+			int cursor = 0;
+			long framesWritten = 0;
+
+			for (int tick = 0; tick < ticks && !Thread.currentThread().isInterrupted(); tick++)
+			{
+				// Same slice the live plugin schedules on this GameTick
+				while (cursor < timeline.size() && timeline.startTick(cursor) < tick + 1.0)
+				{
+					if (timeline.startTick(cursor) >= tick && plan.send(timeline, cursor, tickDurationMs))
+						onsets[onsetCount++] = frameAt(timeline.startTick(cursor), tickDurationMs);
+					cursor++;
+				}
+
+				long tickEnd = frameAt(tick + 1, tickDurationMs);
+				while (framesWritten < tickEnd)
+				{
+					int want = (int) Math.min(buffer.length / frameSize, tickEnd - framesWritten) * frameSize;
+					int read = readFully(stream, buffer, want);
+					if (read <= 0) throw new IOException("Synthesizer stream ended early");
+					pcmOut.write(buffer, 0, read);
+					detector.write(buffer, 0, read);
+					framesWritten += read / frameSize;
+				}
+			}
+
+			long[] scheduled = Arrays.copyOf(onsets, onsetCount);
+			long[] deviations = midisynconsetdetector.deviations(scheduled, detector.getOnsets(),
+					frames(ONSET_WINDOW_MS), frames(midisynconsetdetector.REFRACTORY_MS));
+			return new midisyncrenderreport(file, format.getSampleRate(), framesWritten, ticks,
+					scheduled, detector.getOnsets(), deviations, System.currentTimeMillis() - startMs);
+		}
+		finally
+		{
+			stream.close();
+			synth.close();
+		}
+	}
+
+	/** Simulated ticks needed to play the timeline plus the release tail. */
+	public static int totalTicks(midisynctimeline timeline, double tickDurationMs)
+	{
+		return (int) Math.ceil(timeline.getEndTick() + TAIL_MS / tickDurationMs);
+	}
+
+	private long frames(double ms)
+	{
+		return Math.round(ms * format.getSampleRate() / 1000.0);
+	}
+
+	private long frameAt(double tick, double tickDurationMs)
+	{
+		return frameAt(tick, tickDurationMs, format);
+	}
+
+	/** First frame of the given (fractional) game tick in a render of the given format. */
+	public static long frameAt(double tick, double tickDurationMs, AudioFormat format)
+	{
+		return Math.round(tick * tickDurationMs * format.getSampleRate() / 1000.0);
+	}
+
+	private static int readFully(AudioInputStream stream, byte[] buffer, int length) throws IOException
+	{
+		int total = 0;
+		while (total < length)
+		{
+			int n = stream.read(buffer, total, length - total);
+			if (n < 0) break;
+			total += n;
+		}
+		return total;
+	}
+
+	private byte[] wavHeader(long frames)
+	{
+		int channels = format.getChannels();
+		int sampleRate = (int) format.getSampleRate();
+		int blockAlign = format.getFrameSize();
+		long dataBytes = frames * blockAlign;
+
+		return ByteBuffer.allocate(44).order(ByteOrder.LITTLE_ENDIAN)
+				.putInt(0x46464952) // "RIFF"
+				.putInt((int) (36 + dataBytes))
+				.putInt(0x45564157) // "WAVE"
+				.putInt(0x20746D66) // "fmt "
+				.putInt(16)
+				.putShort((short) 1) // PCM
+				.putShort((short) channels)
+				.putInt(sampleRate)
+				.putInt(sampleRate * blockAlign)
+				.putShort((short) blockAlign)
+				.putShort((short) 16)
+				.putInt(0x61746164) // "data"
+				.putInt((int) dataBytes)
+				.array();
+	}
+
+	/**
+	 * Sends one render's notes through the track's 32-channel plan, like the live plugin on Gervill: every
+	 * channel's bank/program is selected before the first note, and time-shared channels switch at the planned notes.
+	 */
+	private final class ChannelOutput
+	{
+		private final Receiver receiver;
+		private final midisyncchannelplan plan;
+		private final midisyncpatchindex patches = soundFont != null ? soundFont.getPatches() : midisyncpatchindex.EMPTY;
+		private final int[] selected = new int[midisyncchannelplan.MAX_CHANNELS]; // bank << 7 | program per channel, -1 if none
+
+		ChannelOutput(Receiver receiver, midisynctrack track) throws InvalidMidiDataException
+		{
+			this.receiver = receiver;
+			this.plan = track.getChannelPlan(midisyncchannelplan.MAX_CHANNELS);
+			Arrays.fill(selected, -1);
+
+			for (int ch = 0; ch < midisyncchannelplan.MAX_CHANNELS; ch++)
+			{
+				receiver.send(midisyncportmessage.of(ShortMessage.CONTROL_CHANGE, ch, 7, midisyncmix.channelVolume(channelVolumes[ch % 16])), -1);
+				if (plan.getProgram(ch) >= 0) selectPatch(ch, patches.melodicPatch(plan.getProgram(ch)), -1);
+			}
+			if (plan.getKitProgram() >= 0)
+			{
+				int kit = patches.kitPatch(plan.getKitProgram());
+				selectPatch(midisyncchannelplan.PERCUSSION_CHANNEL, kit >= 0 ? kit : Math.max(0, plan.getKitProgram()), -1);
+			}
+		}
+
+		/** Queue note i's on/off on the stream clock; false if the note is filtered out. */
+		boolean send(midisynctimeline timeline, int i, double tickDurationMs) throws InvalidMidiDataException
+		{
+			midisynctrack track = timeline.getTrack();
+			int instrument = track.program(i);
+			int noteChannel = track.channel(i);
+			if (osrsOnly && !midisyncplugin.OSRSMidiMapper.isOsrsInstrument(instrument) && noteChannel != 9)
+				return false;
+
+			int ch = plan.channel(i);
+			long on = (long) (timeline.startTick(i) * tickDurationMs * 1000.0);
+			long off = (long) (timeline.endTick(i) * tickDurationMs * 1000.0);
+			// A time-shared channel switches in the gap, just before this note
+			if (plan.switchesProgram(i)) selectPatch(ch, patches.melodicPatch(instrument), on);
+
+			receiver.send(midisyncportmessage.of(ShortMessage.NOTE_ON, ch, track.key(i), track.velocity(i)), on);
+			receiver.send(midisyncportmessage.of(ShortMessage.NOTE_OFF, ch, track.key(i), 0), off);
+			return true;
+		}
+
+		private void selectPatch(int ch, int patch, long timestamp) throws InvalidMidiDataException
+		{
+			if (selected[ch] == patch) return;
+			selected[ch] = patch;
+
+			int bank = patch >> 7;
+			receiver.send(midisyncportmessage.of(ShortMessage.CONTROL_CHANGE, ch, 0, (bank >> 7) & 0x7F), timestamp);
+			receiver.send(midisyncportmessage.of(ShortMessage.CONTROL_CHANGE, ch, 32, bank & 0x7F), timestamp);
+			receiver.send(midisyncportmessage.of(ShortMessage.PROGRAM_CHANGE, ch, patch & 0x7F, 0), timestamp);
+		}
+	}
+}
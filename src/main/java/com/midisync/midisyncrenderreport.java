@@ -0,0 +1,90 @@
+package com.midisync;
+
+import java.io.File;
+
+/**
+ * Outcome of an offline render: where the audio went, how long it is, the frame at which every note was
+ * scheduled to start, and the onsets actually found in the PCM, so onset timing can be checked without audio hardware.
+ */
+public final class midisyncrenderreport
+{
+	private final File file;
+	private final float sampleRate;
+	private final long frames;
+	private final int ticks;
+	private final long[] onsetFrames;
+	private final long[] detectedOnsetFrames;
+	private final long[] onsetDeviations; // frames, Long.MAX_VALUE if missed
+	private final long elapsedMs;
+
+	midisyncrenderreport(File file, float sampleRate, long frames, int ticks, long[] onsetFrames,
+			long[] detectedOnsetFrames, long[] onsetDeviations, long elapsedMs)
+	{
+		this.file = file;
+		this.sampleRate = sampleRate;
+		this.frames = frames;
+		this.ticks = ticks;
+		this.onsetFrames = onsetFrames;
+		this.detectedOnsetFrames = detectedOnsetFrames;
+		this.onsetDeviations = onsetDeviations;
+		this.elapsedMs = elapsedMs;
+	}
+
+	public File getFile() { return file; }
+	public float getSampleRate() { return sampleRate; }
+	public long getFrames() { return frames; }
+	/** Number of simulated game ticks, including the release tail. */
+	public int getTicks() { return ticks; }
+	/** Scheduled start frame of each played note, in timeline order (filtered notes are left out). */
+	public long[] getOnsetFrames() { return onsetFrames.clone(); }
+	/** Start frame of each onset detected in the rendered PCM (see {@link midisynconsetdetector}). */
+	public long[] getDetectedOnsetFrames() { return detectedOnsetFrames.clone(); }
+	public long getElapsedMs() { return elapsedMs; }
+
+	public double getAudioMs() { return frames * 1000.0 / sampleRate; }
+
+	/** Scheduled onsets far enough apart to be told apart in the audio, and so compared with the detected ones. */
+	public int getComparedOnsets() { return onsetDeviations.length; }
+
+	/** Compared onsets with no detected onset near them. */
+	public int getMissedOnsets()
+	{
+		int missed = 0;
+		for (long deviation : onsetDeviations)
+			if (deviation == Long.MAX_VALUE) missed++;
+		return missed;
+	}
+
+	/** Largest distance between a compared onset and the onset detected for it, in ms. */
+	public double getMaxOnsetDeviationMs()
+	{
+		long max = 0;
+		for (long deviation : onsetDeviations)
+			if (deviation != Long.MAX_VALUE) max = Math.max(max, Math.abs(deviation));
+		return max * 1000.0 / sampleRate;
+	}
+
+	/** Mean distance between the compared onsets and the onsets detected for them, in ms. */
+	public double getMeanOnsetDeviationMs()
+	{
+		long sum = 0;
+		int matched = 0;
+		for (long deviation : onsetDeviations)
+		{
+			if (deviation == Long.MAX_VALUE) continue;
+			sum += Math.abs(deviation);
+			matched++;
+		}
+		return matched > 0 ? sum * 1000.0 / sampleRate / matched : 0.0;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "Rendered " + onsetFrames.length + " notes (" + Math.round(getAudioMs()) + " ms of audio) to "
+				+ (file != null ? file.getName() : "memory") + " in " + elapsedMs + " ms ("
+				+ String.format("%.1fx", elapsedMs > 0 ? getAudioMs() / elapsedMs : 0.0) + " realtime); onsets off by "
+				+ String.format("%.1f ms mean, %.1f ms max", getMeanOnsetDeviationMs(), getMaxOnsetDeviationMs())
+				+ " over " + getComparedOnsets() + ", " + getMissedOnsets() + " not found";
+	}
+}
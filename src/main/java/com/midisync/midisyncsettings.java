@@ -0,0 +1,92 @@
+package com.midisync;
+
+/**
+ * Immutable snapshot of the settings the tick and scheduling paths read, taken from {@link midisyncconfig}
+ * once per change instead of through the config proxy on every tick and note. The plugin publishes a new
+ * snapshot when its config group changes, so a reader sees either the old settings or the new ones, never a mix.
+ */
+public final class midisyncsettings
+{
+	private final boolean enabled;
+	private final int bpm;
+	private final int quantizeDivisor;
+	private final int tickDurationMs;
+	private final int lookaheadTicks;
+	private final boolean timestampedPlayback;
+	private final boolean prerenderedPlayback;
+	private final boolean osrsOnly;
+	private final boolean nextTrack;
+	private final boolean prevTrack;
+	private final boolean renderCurrentTrack;
+	private final int midiVolume;
+	private final int[] channelVolumes = new int[16];
+
+	private midisyncsettings(midisyncconfig config)
+	{
+		enabled = config.MidiSync();
+		bpm = config.bpm();
+		quantizeDivisor = Math.max(1, config.quantizeDivisor());
+		tickDurationMs = config.tickDurationMs();
+		lookaheadTicks = config.lookaheadTicks();
+		timestampedPlayback = config.timestampedPlayback();
+		prerenderedPlayback = config.prerenderedPlayback();
+		osrsOnly = config.osrsOnly();
+		nextTrack = config.nextTrack();
+		prevTrack = config.prevTrack();
+		renderCurrentTrack = config.renderCurrentTrack();
+		midiVolume = config.midiVolume();
+		for (int ch = 0; ch < 16; ch++) channelVolumes[ch] = channelVolume(config, ch);
+	}
+
+	/** Read every snapshotted setting from the config. */
+	public static midisyncsettings of(midisyncconfig config)
+	{
+		return new midisyncsettings(config);
+	}
+
+	public boolean isEnabled() { return enabled; }
+	/** Playback speed in percent of the file's tempo. */
+	public int getBpm() { return bpm; }
+	public int getQuantizeDivisor() { return quantizeDivisor; }
+	/** Grid the timeline is quantized to, in game ticks (1 / divisor). */
+	public double getQuantization() { return 1.0 / quantizeDivisor; }
+	public int getTickDurationMs() { return tickDurationMs; }
+	/** Length of a game tick in the file's own time: the tick length scaled by the playback speed. */
+	public double getMicrosPerGameTick() { return tickDurationMs * 1000.0 * Math.max(1, bpm) / 100.0; }
+	public int getLookaheadTicks() { return lookaheadTicks; }
+	public boolean isTimestampedPlayback() { return timestampedPlayback; }
+	public boolean isPrerenderedPlayback() { return prerenderedPlayback; }
+	public boolean isOsrsOnly() { return osrsOnly; }
+	public boolean isNextTrack() { return nextTrack; }
+	public boolean isPrevTrack() { return prevTrack; }
+	public boolean isRenderCurrentTrack() { return renderCurrentTrack; }
+	/** Overall volume in percent. */
+	public int getMidiVolume() { return midiVolume; }
+	/** Volume of a MIDI channel (0-15) in percent. */
+	public int getChannelVolume(int channel) { return channelVolumes[channel & 0x0F]; }
+	public int[] getChannelVolumes() { return channelVolumes.clone(); }
+
+	private static int channelVolume(midisyncconfig config, int channel)
+	{
+		switch (channel)
+		{
+			case 0: return config.channel0Volume();
+			case 1: return config.channel1Volume();
+			case 2: return config.channel2Volume();
+			case 3: return config.channel3Volume();
+			case 4: return config.channel4Volume();
+			case 5: return config.channel5Volume();
+			case 6: return config.channel6Volume();
+			case 7: return config.channel7Volume();
+			case 8: return config.channel8Volume();
+			case 9: return config.channel9Volume();  // percussion
+			case 10: return config.channel10Volume();
+			case 11: return config.channel11Volume();
+			case 12: return config.channel12Volume();
+			case 13: return config.channel13Volume();
+			case 14: return config.channel14Volume();
+			case 15: return config.channel15Volume();
+			default: return 100;
+		}
+	}
+}
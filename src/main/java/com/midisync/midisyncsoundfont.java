@@ -0,0 +1,189 @@
+package com.midisync;
+
+import javax.sound.midi.Instrument;
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Patch;
+import javax.sound.midi.Soundbank;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Preset index of one SF2 file, read straight from its RIFF chunks through a memory-mapped FileChannel.
+ * Only the preset headers (pdta/phdr) are decoded; the sample chunk (sdta/smpl) is located but never copied,
+ * so indexing a large font costs a few KB of heap instead of every sample.
+ *
+ * Presets are identified by an int: bank << 7 | program for melodic presets (bank as the 14-bit MIDI bank,
+ * the way Gervill numbers SF2 banks), or {@link #PERCUSSION} | program for drum kits (SF2 bank 128).
+ * Instruments are taken from a Gervill {@link Soundbank} only when a track needs them (see {@link midisyncpatchloader}).
+ */
+public final class midisyncsoundfont
+{
+	public static final int PERCUSSION = 1 << 21;
+
+	private static final int RIFF = 0x46464952; // "RIFF"
+	private static final int LIST = 0x5453494C; // "LIST"
+	private static final int SFBK = 0x6B626673; // "sfbk"
+	private static final int SDTA = 0x61746473; // "sdta"
+	private static final int PDTA = 0x61746470; // "pdta"
+	private static final int SMPL = 0x6C706D73; // "smpl"
+	private static final int PHDR = 0x72646870; // "phdr"
+	private static final int PHDR_SIZE = 38;
+	private static final int SF2_PERCUSSION_BANK = 128;
+
+	private final File file;
+	private final int[] presets; // sorted preset ids
+	private final midisyncpatchindex patches;
+	private final long sampleBytes;
+
+	private midisyncsoundfont(File file, int[] presets, long sampleBytes)
+	{
+		this.file = file;
+		this.presets = presets;
+		this.patches = midisyncpatchindex.of(presets);
+		this.sampleBytes = sampleBytes;
+	}
+
+	/** Index the presets of an SF2 file. */
+	public static midisyncsoundfont open(File file) throws IOException
+	{
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+		{
+			if (channel.size() > Integer.MAX_VALUE)
+				throw new IOException("SoundFont too large to map: " + file.getName());
+
+			MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			buf.order(ByteOrder.LITTLE_ENDIAN);
+			if (buf.limit() < 12 || buf.getInt(0) != RIFF || buf.getInt(8) != SFBK)
+				throw new IOException("Not a SoundFont 2 file: " + file.getName());
+
+			int end = (int) Math.min(buf.limit(), 8L + Integer.toUnsignedLong(buf.getInt(4)));
+			int sdta = find(buf, 12, end, SDTA);
+			int pdta = find(buf, 12, end, PDTA);
+			if (pdta < 0) throw new IOException("SoundFont has no preset data: " + file.getName());
+
+			int smpl = sdta < 0 ? -1 : find(buf, sdta + 12, chunkEnd(buf, sdta, end), SMPL);
+			int phdr = find(buf, pdta + 12, chunkEnd(buf, pdta, end), PHDR);
+			if (phdr < 0) throw new IOException("SoundFont has no preset headers: " + file.getName());
+
+			// The last header is the terminal "EOP" record, not a preset
+			int count = Math.max(0, (chunkEnd(buf, phdr, end) - phdr - 8) / PHDR_SIZE - 1);
+			int[] presets = new int[count];
+			for (int i = 0; i < count; i++)
+			{
+				int record = phdr + 8 + i * PHDR_SIZE;
+				int program = buf.getShort(record + 20) & 0x7F;
+				int bank = buf.getShort(record + 22) & 0xFFFF;
+				presets[i] = bank == SF2_PERCUSSION_BANK ? PERCUSSION | program : melodic(bank << 7, program);
+			}
+			Arrays.sort(presets);
+
+			long sampleBytes = smpl < 0 ? 0 : Integer.toUnsignedLong(buf.getInt(smpl + 4));
+			return new midisyncsoundfont(file, presets, sampleBytes);
+		}
+		catch (IndexOutOfBoundsException e)
+		{
+			throw new IOException("Truncated SoundFont: " + file.getName(), e);
+		}
+	}
+
+	/** Id of a melodic preset (14-bit bank). */
+	public static int melodic(int bank, int program)
+	{
+		return (bank & 0x3FFF) << 7 | (program & 0x7F);
+	}
+
+	public File getFile() { return file; }
+
+	public int getPresetCount() { return presets.length; }
+
+	/** Size of the sample chunk, i.e. what loading every instrument would pull into memory. */
+	public long getSampleBytes() { return sampleBytes; }
+
+	public boolean hasPreset(int id) { return Arrays.binarySearch(presets, id) >= 0; }
+
+	/** Ids of every preset in the font, sorted. */
+	public int[] getPresets() { return presets.clone(); }
+
+	/** The font's patches as a (bank, program) bitset, for channel setup. */
+	public midisyncpatchindex getPatches() { return patches; }
+
+	/**
+	 * Presets a track can ask for on the live synth or in a render: each melodic program through the OSRS
+	 * bank/program mapping (or the nearest program in bank 0 when the font lacks that patch), and for channel 9
+	 * the requested drum kit plus kit 0 as its fallback.
+	 */
+	public int[] presetsFor(midisynctrack track, boolean osrsOnly)
+	{
+		int[] ids = new int[256];
+		int count = 0;
+		for (int program = 0; program < 128; program++)
+		{
+			if (track.usesProgram(program, false) && (!osrsOnly || midisyncplugin.OSRSMidiMapper.isOsrsInstrument(program)))
+			{
+				int patch = patches.melodicPatch(program);
+				int id = melodic(patch >> 7, patch & 0x7F);
+				if (hasPreset(id)) ids[count++] = id;
+			}
+			if (track.usesProgram(program, true))
+			{
+				if (hasPreset(PERCUSSION | program)) ids[count++] = PERCUSSION | program;
+				if (hasPreset(PERCUSSION)) ids[count++] = PERCUSSION;
+			}
+		}
+		return Arrays.stream(ids, 0, count).distinct().sorted().toArray();
+	}
+
+	/** A fresh Gervill soundbank over the file; its samples stay on disk until an instrument is loaded from it. */
+	public Soundbank openSoundbank() throws IOException, InvalidMidiDataException
+	{
+		return MidiSystem.getSoundbank(file);
+	}
+
+	/**
+	 * Instruments of a soundbank opened by {@link #openSoundbank()}, by preset id.
+	 * Gervill reports SF2 drum kits as bank 0 with a percussion flag javax.sound.midi can't see; a bank-0
+	 * instrument that isn't the melodic one for its program is therefore the kit.
+	 */
+	public static Map<Integer, Instrument> instruments(Soundbank soundbank)
+	{
+		Map<Integer, Instrument> byId = new HashMap<>();
+		for (Instrument instrument : soundbank.getInstruments())
+		{
+			Patch patch = instrument.getPatch();
+			if (soundbank.getInstrument(new Patch(patch.getBank(), patch.getProgram())) == instrument)
+				byId.put(melodic(patch.getBank(), patch.getProgram()), instrument);
+			else if (patch.getBank() == 0)
+				byId.put(PERCUSSION | patch.getProgram(), instrument);
+		}
+		return byId;
+	}
+
+	/** Position of the chunk with the given id, or of the LIST chunk of that type, between from and to; -1 if none. */
+	private static int find(MappedByteBuffer buf, int from, int to, int type)
+	{
+		int pos = from;
+		while (pos + 8 <= to)
+		{
+			int id = buf.getInt(pos);
+			if (id == type || (id == LIST && pos + 12 <= to && buf.getInt(pos + 8) == type))
+				return pos;
+			pos = chunkEnd(buf, pos, to);
+		}
+		return -1;
+	}
+
+	/** End of the chunk at pos (past its pad byte), clamped to the enclosing chunk. */
+	private static int chunkEnd(MappedByteBuffer buf, int pos, int to)
+	{
+		long size = Integer.toUnsignedLong(buf.getInt(pos + 4));
+		return (int) Math.min(to, pos + 8 + size + (size & 1));
+	}
+}
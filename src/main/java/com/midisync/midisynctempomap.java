@@ -0,0 +1,129 @@
+package com.midisync;
+
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.Track;
+import java.util.Arrays;
+
+/**
+ * Piecewise-linear MIDI tick to microsecond mapping of one {@link Sequence}, built from the Set Tempo (0x51)
+ * meta events of all its tracks. Each segment starts at a tempo change and runs at that tempo until the next;
+ * SMPTE-division files have a fixed tick length and one segment. A tick is placed by binary search for its segment.
+ */
+public final class midisynctempomap
+{
+	/** Tempo before the first Set Tempo event: 500000 microseconds per quarter note (120 bpm). */
+	public static final int DEFAULT_TEMPO = 500_000;
+	private static final int SET_TEMPO = 0x51;
+
+	private final int[] ticks; // segment starts, ascending, from 0
+	private final double[] microsPerTick; // per segment
+	private final double[] micros; // time at each segment start
+
+	private midisynctempomap(int[] ticks, double[] microsPerTick)
+	{
+		this.ticks = ticks;
+		this.microsPerTick = microsPerTick;
+		this.micros = new double[ticks.length];
+		for (int i = 1; i < ticks.length; i++)
+			micros[i] = micros[i - 1] + (ticks[i] - ticks[i - 1]) * microsPerTick[i - 1];
+	}
+
+	/** Tempo map of a parsed sequence, over the tempo events of every track. */
+	public static midisynctempomap of(Sequence sequence)
+	{
+		int resolution = Math.max(1, sequence.getResolution());
+		if (sequence.getDivisionType() != Sequence.PPQ)
+		{
+			// Ticks per SMPTE frame: the tick length is fixed and tempo events don't apply
+			return constant(1_000_000.0 / (sequence.getDivisionType() * resolution));
+		}
+
+		// (tick << 20 | file order) so changes at the same tick keep the one read last
+		long[] order = new long[16];
+		int[] tempos = new int[16];
+		int count = 0;
+		for (Track track : sequence.getTracks())
+		{
+			for (int i = 0; i < track.size() && count < 1 << 20; i++)
+			{
+				MidiEvent event = track.get(i);
+				MidiMessage message = event.getMessage();
+				if (!(message instanceof MetaMessage) || ((MetaMessage) message).getType() != SET_TEMPO) continue;
+
+				byte[] data = ((MetaMessage) message).getData();
+				if (data.length < 3) continue;
+				int tempo = (data[0] & 0xFF) << 16 | (data[1] & 0xFF) << 8 | (data[2] & 0xFF);
+				if (tempo == 0) continue;
+
+				if (count == order.length)
+				{
+					order = Arrays.copyOf(order, count * 2);
+					tempos = Arrays.copyOf(tempos, count * 2);
+				}
+				order[count] = (long) clampTick(event.getTick()) << 20 | count;
+				tempos[count] = tempo;
+				count++;
+			}
+		}
+		Arrays.sort(order, 0, count);
+
+		int[] ticks = new int[count + 1];
+		double[] microsPerTick = new double[count + 1];
+		microsPerTick[0] = (double) DEFAULT_TEMPO / resolution;
+		int segments = 1;
+		for (int n = 0; n < count; n++)
+		{
+			int tick = (int) (order[n] >>> 20);
+			double length = (double) tempos[(int) (order[n] & 0xFFFFF)] / resolution;
+			if (tick == ticks[segments - 1]) microsPerTick[segments - 1] = length;
+			else if (length != microsPerTick[segments - 1])
+			{
+				ticks[segments] = tick;
+				microsPerTick[segments] = length;
+				segments++;
+			}
+		}
+		return new midisynctempomap(Arrays.copyOf(ticks, segments), Arrays.copyOf(microsPerTick, segments));
+	}
+
+	/** A map with one tempo throughout. */
+	public static midisynctempomap constant(double microsPerTick)
+	{
+		return new midisynctempomap(new int[] { 0 }, new double[] { microsPerTick });
+	}
+
+	/** Rebuild a map from stored segments (see {@link midisyncdiskcache}); the first segment must start at tick 0. */
+	static midisynctempomap fromSegments(int[] ticks, double[] microsPerTick)
+	{
+		return new midisynctempomap(ticks, microsPerTick);
+	}
+
+	/** Time of a MIDI tick from the start of the sequence, in microseconds. */
+	public double micros(int tick)
+	{
+		int lo = 0;
+		int hi = ticks.length - 1;
+		while (lo < hi)
+		{
+			int mid = (lo + hi + 1) >>> 1;
+			if (ticks[mid] <= tick) lo = mid;
+			else hi = mid - 1;
+		}
+		return micros[lo] + (tick - ticks[lo]) * microsPerTick[lo];
+	}
+
+	/** Number of tempo segments (1 for a file without tempo changes). */
+	public int segments() { return ticks.length; }
+
+	public int segmentTick(int segment) { return ticks[segment]; }
+
+	public double segmentMicrosPerTick(int segment) { return microsPerTick[segment]; }
+
+	private static int clampTick(long midiTick)
+	{
+		return (int) Math.min(Integer.MAX_VALUE, Math.max(0, midiTick));
+	}
+}
@@ -0,0 +1,90 @@
+package com.midisync;
+
+/**
+ * Estimates when each game tick really started and how long ticks really are, from the System.nanoTime
+ * arrival of every GameTick, instead of trusting the nominal tick length.
+ *
+ * Arrivals jitter by tens of ms, so the tick start is tracked with an alpha-beta filter: each arrival pulls
+ * the predicted start (previous start plus the estimated period) a fraction of the way towards it, and nudges
+ * the period by a smaller fraction. Sub-tick notes are then placed on the filtered start and period.
+ *
+ * Arrivals far off the prediction aren't filtered. A stall (server lag, login) restarts the clock at the
+ * arrival. A burst of ticks catching up afterwards keeps the ticks a period apart, so their notes queue behind
+ * each other instead of on top of each other, until that queue would run more than {@link #MAX_BACKLOG}
+ * periods ahead; then the clock restarts at the arrival too and {@link #isResync()} tells the caller to drop
+ * what is still queued.
+ */
+public final class midisynctickclock
+{
+	private static final double ALPHA = 0.125; // share of the phase error taken per tick
+	private static final double BETA = 0.01; // share of the phase error added to the period per tick
+	private static final double STALL = 0.5; // periods late before an arrival counts as a stall
+	private static final double BURST = 0.5; // periods early before an arrival counts as a burst
+	private static final double MAX_BACKLOG = 2.0;
+	private static final double MIN_PERIOD = 0.8; // of nominal
+	private static final double MAX_PERIOD = 1.25;
+
+	private long nominalNanos;
+	private double periodNanos;
+	private long tickStart;
+	private boolean started;
+	private boolean resync;
+	private int stalls;
+	private int bursts;
+
+	/** Record a GameTick arriving at the given nanoTime; returns the estimated start of that tick. */
+	public long onTick(long arrivalNanos, double nominalMs)
+	{
+		long nominal = (long) (nominalMs * 1_000_000);
+		if (nominal != nominalNanos)
+		{
+			// New tick length setting: start over from it
+			nominalNanos = nominal;
+			periodNanos = nominal;
+			started = false;
+		}
+
+		resync = false;
+		if (!started)
+		{
+			started = true;
+			return tickStart = arrivalNanos;
+		}
+
+		long predicted = tickStart + (long) periodNanos;
+		long error = arrivalNanos - predicted;
+		if (error > STALL * periodNanos)
+		{
+			stalls++;
+			tickStart = arrivalNanos;
+		}
+		else if (error < -BURST * periodNanos)
+		{
+			bursts++;
+			if (predicted - arrivalNanos > MAX_BACKLOG * periodNanos)
+			{
+				resync = true;
+				tickStart = arrivalNanos;
+			}
+			else tickStart = predicted;
+		}
+		else
+		{
+			tickStart = predicted + (long) (ALPHA * error);
+			periodNanos = Math.max(MIN_PERIOD * nominalNanos, Math.min(MAX_PERIOD * nominalNanos, periodNanos + BETA * error));
+		}
+		return tickStart;
+	}
+
+	/** Estimated length of a game tick. */
+	public double getPeriodMs() { return periodNanos / 1_000_000.0; }
+
+	/** Whether the last tick restarted the clock with notes from earlier ticks still queued ahead of it. */
+	public boolean isResync() { return resync; }
+
+	/** Ticks so far that arrived too late to filter, restarting the clock. */
+	public int getStalls() { return stalls; }
+
+	/** Ticks so far that arrived too early to filter, queued a period after the one before. */
+	public int getBursts() { return bursts; }
+}
@@ -0,0 +1,101 @@
+package com.midisync;
+
+import java.util.Arrays;
+
+/**
+ * Immutable quantized view of one {@link midisynctrack} at one tick length and playback speed, in the track's start order.
+ * The plugin walks it with a play cursor so a game tick only touches the notes that start inside it.
+ * The track summary (end tick, per-channel counts, sorted end ticks) is computed here once,
+ * and a re-quantized track gets a fresh view built from the raw ticks, so the summary always matches the notes.
+ */
+public final class midisynctimeline
+{
+	private final midisynctrack track;
+	private final double quantization;
+	private final double microsPerGameTick;
+	private final float[] startTicks;
+	private final float[] endTicks;
+
+	// ====== Summary ======
+	private final float[] sortedEndTicks;
+	private final int[] channelCounts = new int[16];
+	private final double endTick;
+
+	public midisynctimeline(midisynctrack track, double quantization, double microsPerGameTick)
+	{
+		this.track = track;
+		this.quantization = quantization;
+		this.microsPerGameTick = microsPerGameTick;
+
+		int n = track.size();
+		startTicks = new float[n];
+		endTicks = new float[n];
+		for (int i = 0; i < n; i++)
+		{
+			// Floor start to avoid skipping, ceil end to ensure the note plays fully
+			startTicks[i] = (float) (Math.floor(track.startMicros(i) / microsPerGameTick / quantization) * quantization);
+			endTicks[i] = (float) (Math.ceil(track.endMicros(i) / microsPerGameTick / quantization) * quantization);
+			channelCounts[track.channel(i)]++;
+		}
+
+		sortedEndTicks = endTicks.clone();
+		Arrays.sort(sortedEndTicks);
+		endTick = n > 0 ? sortedEndTicks[n - 1] : 0.0;
+	}
+
+	public midisynctrack getTrack() { return track; }
+
+	public double getQuantization() { return quantization; }
+
+	/** Length of a game tick in file time: the tick length times the playback speed. */
+	public double getMicrosPerGameTick() { return microsPerGameTick; }
+
+	public int size() { return startTicks.length; }
+
+	public boolean isEmpty() { return startTicks.length == 0; }
+
+	/** Quantized start of note i, in game ticks. */
+	public double startTick(int index) { return startTicks[index]; }
+
+	/** Quantized end of note i, in game ticks. */
+	public double endTick(int index) { return endTicks[index]; }
+
+	/** Tick at which the last note of the track ends. */
+	public double getEndTick() { return endTick; }
+
+	public int getNoteCount() { return startTicks.length; }
+
+	/** Number of notes on the given MIDI channel (0..15). */
+	public int getChannelNoteCount(int channel)
+	{
+		return channel >= 0 && channel < channelCounts.length ? channelCounts[channel] : 0;
+	}
+
+	/** Number of notes still sounding or yet to play at the given tick (end tick after it). */
+	public int notesRemaining(double tick)
+	{
+		int lo = 0;
+		int hi = sortedEndTicks.length;
+		while (lo < hi)
+		{
+			int mid = (lo + hi) >>> 1;
+			if (sortedEndTicks[mid] <= tick) lo = mid + 1;
+			else hi = mid;
+		}
+		return sortedEndTicks.length - lo;
+	}
+
+	/** Cursor position of the first note starting at or after the given tick (binary search). */
+	public int seek(double tick)
+	{
+		int lo = 0;
+		int hi = startTicks.length;
+		while (lo < hi)
+		{
+			int mid = (lo + hi) >>> 1;
+			if (startTicks[mid] < tick) lo = mid + 1;
+			else hi = mid;
+		}
+		return lo;
+	}
+}
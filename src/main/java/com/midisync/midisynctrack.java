@@ -0,0 +1,181 @@
+package com.midisync;
+
+import java.util.Arrays;
+
+/**
+ * One parsed MIDI file, stored as parallel primitive columns instead of one object per note.
+ * Notes are sorted by raw start tick. Quantizing is monotonic, so every quantized view of the track
+ * (see {@link midisynctimeline}) comes out in the same order without re-sorting. Views are always derived
+ * from the raw ticks, never from another view, and the last few are kept (see {@link #view}).
+ *
+ * Per note: key, velocity, channel and program packed into one int, plus raw MIDI start/end ticks.
+ * Times come from the file's {@link midisynctempomap}; the tick length and playback speed only scale them into
+ * game ticks when a view is derived, so a parsed track serves every speed setting.
+ */
+public final class midisynctrack
+{
+	// packed = key | velocity << 7 | channel << 14 | program << 18
+	private static final int KEY_SHIFT = 0;
+	private static final int VELOCITY_SHIFT = 7;
+	private static final int CHANNEL_SHIFT = 14;
+	private static final int PROGRAM_SHIFT = 18;
+
+	private final int[] packed;
+	private final int[] rawStart;
+	private final int[] rawEnd;
+	private final midisynctempomap tempo;
+
+	// Programs played, one bit each: melodic channels, then channel 9 kits
+	private final long[] programsUsed = new long[4];
+	private final midisyncchannelplan channelPlan; // for a 16-channel synth
+	private final midisyncchannelplan widePlan; // for a synth with a second port
+
+	// Quantized views, most recently used first, so switching a setting back and forth costs nothing
+	private static final int VIEWS = 2;
+	private final midisynctimeline[] views = new midisynctimeline[VIEWS];
+	private final int[] viewDivisors = new int[VIEWS];
+	private final double[] viewMicros = new double[VIEWS];
+
+	private midisynctrack(int[] packed, int[] rawStart, int[] rawEnd, midisynctempomap tempo)
+	{
+		this.packed = packed;
+		this.rawStart = rawStart;
+		this.rawEnd = rawEnd;
+		this.tempo = tempo;
+
+		for (int i = 0; i < packed.length; i++)
+		{
+			int bit = (channel(i) == 9 ? 128 : 0) + program(i);
+			programsUsed[bit >>> 6] |= 1L << bit;
+		}
+		channelPlan = midisyncchannelplan.of(this, 16);
+		widePlan = midisyncchannelplan.melodicInstruments(this) < 16 ? channelPlan
+				: midisyncchannelplan.of(this, midisyncchannelplan.MAX_CHANNELS);
+	}
+
+	/** Rebuild a track from previously stored columns (see {@link midisyncdiskcache}); columns must already be sorted. */
+	static midisynctrack fromColumns(int[] packed, int[] rawStart, int[] rawEnd, midisynctempomap tempo)
+	{
+		return new midisynctrack(packed, rawStart, rawEnd, tempo);
+	}
+
+	public int size() { return packed.length; }
+
+	/** Raw packed word of note i, for serialization. */
+	int packed(int i) { return packed[i]; }
+
+	public int key(int i) { return (packed[i] >>> KEY_SHIFT) & 0x7F; }
+	public int velocity(int i) { return (packed[i] >>> VELOCITY_SHIFT) & 0x7F; }
+	public int channel(int i) { return (packed[i] >>> CHANNEL_SHIFT) & 0x0F; }
+	/** Program in effect on the note's channel when it started (the kit program for channel 9). */
+	public int program(int i) { return (packed[i] >>> PROGRAM_SHIFT) & 0x7F; }
+
+	/** Whether any note plays the given program, on channel 9 (as a drum kit) or on the melodic channels. */
+	public boolean usesProgram(int program, boolean percussion)
+	{
+		int bit = (percussion ? 128 : 0) + (program & 0x7F);
+		return (programsUsed[bit >>> 6] & 1L << bit) != 0;
+	}
+
+	/** Output channel of every note on a synth with the given number of channels, worked out when the track was compiled. */
+	public midisyncchannelplan getChannelPlan(int channels)
+	{
+		return channels >= midisyncchannelplan.MAX_CHANNELS ? widePlan : channelPlan;
+	}
+
+	/**
+	 * View in game ticks of the given length (in file time: the tick length times the playback speed), quantized
+	 * on a grid of 1/divisor ticks; built from the raw ticks on first use.
+	 */
+	public synchronized midisynctimeline view(int divisor, double microsPerGameTick)
+	{
+		divisor = Math.max(1, divisor);
+		int found = 0;
+		while (found < VIEWS && (views[found] == null || viewDivisors[found] != divisor || viewMicros[found] != microsPerGameTick))
+			found++;
+
+		midisynctimeline view = found < VIEWS ? views[found] : new midisynctimeline(this, 1.0 / divisor, microsPerGameTick);
+		for (int i = Math.min(found, VIEWS - 1); i > 0; i--)
+		{
+			views[i] = views[i - 1];
+			viewDivisors[i] = viewDivisors[i - 1];
+			viewMicros[i] = viewMicros[i - 1];
+		}
+		views[0] = view;
+		viewDivisors[0] = divisor;
+		viewMicros[0] = microsPerGameTick;
+		return view;
+	}
+
+	public int rawStart(int i) { return rawStart[i]; }
+	public int rawEnd(int i) { return rawEnd[i]; }
+
+	/** Unquantized start, in microseconds from the start of the file at its own tempo. */
+	public double startMicros(int i) { return tempo.micros(rawStart[i]); }
+
+	/** Unquantized end, in microseconds from the start of the file at its own tempo. */
+	public double endMicros(int i) { return tempo.micros(rawEnd[i]); }
+
+	public midisynctempomap getTempoMap() { return tempo; }
+
+	/** Collects notes during a parse. A note only makes it into the track once its note-off is seen. */
+	public static final class Builder
+	{
+		private int[] packed = new int[256];
+		private int[] rawStart = new int[256];
+		private int[] rawEnd = new int[256];
+		private int count;
+
+		/** Add a sounding note; returns its slot for {@link #end}. */
+		public int start(int key, int velocity, int channel, int program, long midiTick)
+		{
+			if (count == packed.length)
+			{
+				int grown = count * 2;
+				packed = Arrays.copyOf(packed, grown);
+				rawStart = Arrays.copyOf(rawStart, grown);
+				rawEnd = Arrays.copyOf(rawEnd, grown);
+			}
+			packed[count] = (key & 0x7F) << KEY_SHIFT
+					| (velocity & 0x7F) << VELOCITY_SHIFT
+					| (channel & 0x0F) << CHANNEL_SHIFT
+					| (program & 0x7F) << PROGRAM_SHIFT;
+			rawStart[count] = clampTick(midiTick);
+			rawEnd[count] = -1; // still open
+			return count++;
+		}
+
+		public void end(int slot, long midiTick)
+		{
+			rawEnd[slot] = clampTick(midiTick);
+		}
+
+		public midisynctrack build(midisynctempomap tempo)
+		{
+			// Sort closed notes by (start, insertion order) so chords keep file order
+			long[] order = new long[count];
+			int closed = 0;
+			for (int i = 0; i < count; i++)
+				if (rawEnd[i] >= 0)
+					order[closed++] = ((long) rawStart[i] << 32) | i;
+			Arrays.sort(order, 0, closed);
+
+			int[] p = new int[closed];
+			int[] s = new int[closed];
+			int[] e = new int[closed];
+			for (int n = 0; n < closed; n++)
+			{
+				int i = (int) order[n];
+				p[n] = packed[i];
+				s[n] = rawStart[i];
+				e[n] = rawEnd[i];
+			}
+			return new midisynctrack(p, s, e, tempo);
+		}
+
+		private static int clampTick(long midiTick)
+		{
+			return (int) Math.min(Integer.MAX_VALUE, Math.max(0, midiTick));
+		}
+	}
+}
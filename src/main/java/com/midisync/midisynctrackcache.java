@@ -0,0 +1,112 @@
+package com.midisync;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Size-bounded LRU of parsed tracks, keyed by file name.
+ * Pinned tracks (the current one and the predicted next ones) are never evicted,
+ * so the cache can hold up to capacity + pinned entries.
+ *
+ * Background parses take a {@link #version(String)} before they start and put their result with it, so a
+ * parse of a file that was invalidated meanwhile (removed, rewritten) can't put the old track back.
+ */
+public final class midisynctrackcache
+{
+	private final LinkedHashMap<String, midisynctimeline> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private final Set<String> pinned = new HashSet<>();
+	private final Map<String, Integer> removals = new HashMap<>(); // per name, bumped by remove
+	private int clears; // bumped by retainOnly and clear
+	private int capacity;
+
+	public midisynctrackcache(int capacity)
+	{
+		this.capacity = Math.max(1, capacity);
+	}
+
+	public synchronized midisynctimeline get(String name)
+	{
+		return entries.get(name);
+	}
+
+	/** Membership check that doesn't count as a use for LRU ordering. */
+	public synchronized boolean contains(String name)
+	{
+		return entries.containsKey(name);
+	}
+
+	public synchronized void put(String name, midisynctimeline timeline)
+	{
+		entries.put(name, timeline);
+		evict();
+	}
+
+	/** Token for a parse of the named file that is about to start; see {@link #put(String, midisynctimeline, long)}. */
+	public synchronized long version(String name)
+	{
+		return (long) clears << 32 | removals.getOrDefault(name, 0);
+	}
+
+	/** Cache a parse result unless the entry was invalidated since its version was taken; false if dropped. */
+	public synchronized boolean put(String name, midisynctimeline timeline, long version)
+	{
+		if (version(name) != version) return false;
+		put(name, timeline);
+		return true;
+	}
+
+	public synchronized void remove(String name)
+	{
+		entries.remove(name);
+		removals.merge(name, 1, Integer::sum);
+	}
+
+	/** Replaces the pinned set; tracks that lose their pin become evictable again. */
+	public synchronized void pin(Collection<String> names)
+	{
+		pinned.clear();
+		pinned.addAll(names);
+		evict();
+	}
+
+	public synchronized void setCapacity(int capacity)
+	{
+		this.capacity = Math.max(1, capacity);
+		evict();
+	}
+
+	public synchronized int size()
+	{
+		return entries.size();
+	}
+
+	/** Drop everything except the named track. */
+	public synchronized void retainOnly(String name)
+	{
+		entries.keySet().removeIf(key -> !key.equals(name));
+		clears++;
+	}
+
+	public synchronized void clear()
+	{
+		entries.clear();
+		pinned.clear();
+		clears++;
+	}
+
+	private void evict()
+	{
+		Iterator<Map.Entry<String, midisynctimeline>> it = entries.entrySet().iterator();
+		while (entries.size() > capacity && it.hasNext())
+		{
+			// Iteration runs least-recently-used first
+			if (!pinned.contains(it.next().getKey()))
+				it.remove();
+		}
+	}
+}
@@ -0,0 +1,167 @@
+package com.midisync;
+
+import java.util.Arrays;
+
+/**
+ * Active-voice table in front of the synthesizer. Every note on/off passes through here on its way out, so we
+ * know what is sounding per channel and key and can keep it under a polyphony budget ourselves instead of
+ * leaving Gervill to steal arbitrarily when it runs out.
+ *
+ * A channel/key is one voice. Overlapping notes on the same key are reference counted: a retrigger re-strikes
+ * the key, and only the last note-off releases it, so an early note-off no longer cuts a later note short.
+ * When the budget is full the quietest (then oldest) melodic voice is stolen; percussion is never stolen,
+ * and a note that finds only percussion to steal is dropped.
+ */
+public final class midisyncvoices
+{
+	/** Where surviving note on/offs go (live channels or timestamped messages). */
+	public interface Output
+	{
+		void noteOn(int channel, int key, int velocity);
+		void noteOff(int channel, int key);
+	}
+
+	public static final int MAX_BUDGET = 256;
+	private static final int CHANNELS = midisyncchannelplan.MAX_CHANNELS;
+	private static final int PERCUSSION_CHANNEL = 9;
+
+	private final int[] slotOf = new int[CHANNELS * 128]; // channel << 7 | key -> active slot, or -1
+	private final int[] orphanOffs = new int[CHANNELS * 128]; // note-offs still to come for stolen/dropped notes
+
+	// Active voices, packed into the first activeCount slots
+	private final int[] voiceId = new int[MAX_BUDGET];
+	private final int[] voiceVelocity = new int[MAX_BUDGET];
+	private final long[] voiceStarted = new long[MAX_BUDGET];
+	private final int[] voiceRefs = new int[MAX_BUDGET];
+	private int activeCount;
+
+	private final int[] channelCounts = new int[CHANNELS];
+	private int budget;
+	private long sequence;
+	private long stolen;
+	private long dropped;
+
+	public midisyncvoices(int budget)
+	{
+		Arrays.fill(slotOf, -1);
+		setBudget(budget);
+	}
+
+	/** New budget; voices over it are left to finish rather than cut. */
+	public synchronized void setBudget(int budget)
+	{
+		this.budget = Math.max(1, Math.min(MAX_BUDGET, budget));
+	}
+
+	public synchronized void noteOn(int channel, int key, int velocity, Output out)
+	{
+		int id = channel << 7 | key;
+		int slot = slotOf[id];
+		if (slot != -1)
+		{
+			// Retrigger: re-strike the key, keep one voice, count the hold
+			voiceRefs[slot]++;
+			voiceVelocity[slot] = velocity;
+			voiceStarted[slot] = sequence++;
+			out.noteOff(channel, key);
+			out.noteOn(channel, key, velocity);
+			return;
+		}
+
+		if (activeCount >= budget && !steal(out))
+		{
+			orphanOffs[id]++;
+			dropped++;
+			return;
+		}
+
+		slot = activeCount++;
+		slotOf[id] = slot;
+		voiceId[slot] = id;
+		voiceVelocity[slot] = velocity;
+		voiceStarted[slot] = sequence++;
+		voiceRefs[slot] = 1;
+		channelCounts[channel]++;
+		out.noteOn(channel, key, velocity);
+	}
+
+	public synchronized void noteOff(int channel, int key, Output out)
+	{
+		int id = channel << 7 | key;
+		if (orphanOffs[id] > 0)
+		{
+			// Belongs to a note that was stolen or dropped, not to whatever holds the key now
+			orphanOffs[id]--;
+			return;
+		}
+
+		int slot = slotOf[id];
+		if (slot == -1) return;
+
+		if (--voiceRefs[slot] > 0) return; // a later note on this key still holds it
+
+		release(slot);
+		out.noteOff(channel, key);
+	}
+
+	/** Forget every voice; the caller has already silenced the synth. */
+	public synchronized void reset()
+	{
+		for (int i = 0; i < activeCount; i++) slotOf[voiceId[i]] = -1;
+		Arrays.fill(orphanOffs, 0);
+		activeCount = 0;
+		Arrays.fill(channelCounts, 0);
+	}
+
+	public synchronized int getActive() { return activeCount; }
+
+	public synchronized int getActive(int channel) { return channel >= 0 && channel < CHANNELS ? channelCounts[channel] : 0; }
+
+	public synchronized int getBudget() { return budget; }
+
+	/** Voices cut to make room since startup. */
+	public synchronized long getStolen() { return stolen; }
+
+	/** Notes skipped because only percussion was left to steal. */
+	public synchronized long getDropped() { return dropped; }
+
+	/** Free a slot for a new note: quietest melodic voice first, oldest among equals. */
+	private boolean steal(Output out)
+	{
+		int victim = -1;
+		for (int i = 0; i < activeCount; i++)
+		{
+			if (voiceId[i] >>> 7 == PERCUSSION_CHANNEL) continue;
+			if (victim == -1
+					|| voiceVelocity[i] < voiceVelocity[victim]
+					|| (voiceVelocity[i] == voiceVelocity[victim] && voiceStarted[i] < voiceStarted[victim]))
+				victim = i;
+		}
+		if (victim == -1) return false;
+
+		int id = voiceId[victim];
+		orphanOffs[id] += voiceRefs[victim];
+		release(victim);
+		stolen++;
+		out.noteOff(id >>> 7, id & 0x7F);
+		return true;
+	}
+
+	private void release(int slot)
+	{
+		int id = voiceId[slot];
+		slotOf[id] = -1;
+		channelCounts[id >>> 7]--;
+
+		// Move the last active voice into the hole
+		int last = --activeCount;
+		if (slot != last)
+		{
+			voiceId[slot] = voiceId[last];
+			voiceVelocity[slot] = voiceVelocity[last];
+			voiceStarted[slot] = voiceStarted[last];
+			voiceRefs[slot] = voiceRefs[last];
+			slotOf[voiceId[slot]] = slot;
+		}
+	}
+}
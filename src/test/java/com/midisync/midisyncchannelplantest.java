@@ -0,0 +1,122 @@
+package com.midisync;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class midisyncchannelplantest
+{
+	@Test
+	public void instrumentsTakeAChannelEachAroundPercussion()
+	{
+		midisynctrack.Builder notes = new midisynctrack.Builder();
+		for (int program = 0; program < 10; program++) note(notes, 0, program, 0, 100);
+		note(notes, 9, 25, 0, 100);
+		note(notes, 9, 40, 200, 300);
+		midisyncchannelplan plan = notes.build(midisynctempomap.constant(1000.0)).getChannelPlan(16);
+
+		for (int i = 0; i < 9; i++) assertEquals(i, plan.channel(i));
+		assertEquals(10, plan.channel(9)); // channel 9 is left to percussion
+		assertEquals(9, plan.channel(10));
+		assertEquals(9, plan.getProgram(10));
+		assertEquals(-1, plan.getProgram(9));
+		assertEquals(25, plan.getKitProgram()); // the first kit asked for
+		assertEquals(0, plan.getSwitchCount());
+		assertEquals(11, plan.getChannelCount());
+	}
+
+	@Test
+	public void everyChannelIsUsedBeforeInstrumentsTakeTurns()
+	{
+		// 17 instruments one after another: one program per channel until the 15 melodic channels run out
+		midisynctrack.Builder notes = new midisynctrack.Builder();
+		for (int program = 0; program < 17; program++) note(notes, 0, program, program * 100, program * 100 + 50);
+		midisynctrack track = notes.build(midisynctempomap.constant(1000.0));
+		midisyncchannelplan plan = track.getChannelPlan(16);
+
+		for (int i = 0; i < 15; i++)
+		{
+			assertFalse(plan.switchesProgram(i));
+			assertEquals(i, plan.getProgram(plan.channel(i)));
+		}
+		assertEquals(16, plan.getChannelCount());
+
+		// Then each newcomer takes the channel that has been silent longest
+		assertEquals(0, plan.channel(15));
+		assertTrue(plan.switchesProgram(15));
+		assertEquals(1, plan.channel(16));
+		assertTrue(plan.switchesProgram(16));
+		assertEquals(2, plan.getSwitchCount());
+	}
+
+	@Test
+	public void busyChannelsShareTheOneFreeingUpSoonest()
+	{
+		// 15 instruments hold every melodic channel; the one ending first is shared with a 16th
+		midisynctrack.Builder notes = new midisynctrack.Builder();
+		for (int program = 0; program < 15; program++) note(notes, 0, program, 0, program == 7 ? 500 : 1000);
+		note(notes, 0, 15, 100, 200);
+		midisynctrack track = notes.build(midisynctempomap.constant(1000.0));
+		midisyncchannelplan plan = track.getChannelPlan(16);
+
+		assertEquals(7, plan.channel(15));
+		assertTrue(plan.switchesProgram(15));
+		assertEquals(1, plan.getSwitchCount());
+	}
+
+	@Test
+	public void instrumentGoesBackToItsChannel()
+	{
+		midisynctrack.Builder notes = new midisynctrack.Builder();
+		for (int program = 0; program < 16; program++) note(notes, 0, program, 0, 100);
+		note(notes, 0, 3, 200, 300);
+		midisynctrack track = notes.build(midisynctempomap.constant(1000.0));
+		midisyncchannelplan plan = track.getChannelPlan(16);
+
+		// The 16th instrument shared a channel, but nothing took program 3's, so its later note stays there unswitched
+		assertTrue(plan.switchesProgram(15));
+		assertEquals(plan.channel(3), plan.channel(16));
+		assertFalse(plan.switchesProgram(16));
+	}
+
+	@Test
+	public void programAtANoteIsTheLastSwitchBeforeIt()
+	{
+		midisynctrack.Builder notes = new midisynctrack.Builder();
+		for (int program = 0; program < 15; program++) note(notes, 0, program, 0, 100);
+		note(notes, 0, 20, 200, 300);
+		note(notes, 0, 21, 400, 500);
+		midisynctrack track = notes.build(midisynctempomap.constant(1000.0));
+		midisyncchannelplan plan = track.getChannelPlan(16);
+
+		assertEquals(0, plan.channel(15));
+		assertEquals(1, plan.channel(16));
+		assertEquals(0, plan.getProgram(0, 15)); // the switch is part of note 15, not yet played
+		assertEquals(20, plan.getProgram(0, 16));
+		assertEquals(20, plan.getProgram(0, 17));
+		assertEquals(21, plan.getProgram(1, 17));
+		assertEquals(2, plan.getProgram(2, 17));
+	}
+
+	@Test
+	public void secondPortGivesEveryInstrumentItsOwnChannel()
+	{
+		midisynctrack.Builder notes = new midisynctrack.Builder();
+		for (int program = 0; program < 17; program++) note(notes, 0, program, program * 100, program * 100 + 50);
+		midisynctrack track = notes.build(midisynctempomap.constant(1000.0));
+		midisyncchannelplan plan = track.getChannelPlan(midisyncchannelplan.MAX_CHANNELS);
+
+		assertEquals(0, plan.getSwitchCount());
+		assertEquals(15, plan.channel(14));
+		assertEquals(16, plan.channel(15));
+		assertEquals(17, plan.channel(16));
+		assertEquals(16, plan.getProgram(17));
+	}
+
+	private static void note(midisynctrack.Builder notes, int channel, int program, int start, int end)
+	{
+		notes.end(notes.start(60, 100, channel, program, start), end);
+	}
+}
@@ -0,0 +1,141 @@
+package com.midisync;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class midisyncdispatchertest
+{
+	// The dispatcher thread is never started: events are only taken off the heap by drainUntil
+	private final midisyncdispatcher dispatcher = new midisyncdispatcher((kind, channel, key, velocity) -> { });
+
+	@Test
+	public void drainsInDeadlineOrder()
+	{
+		dispatcher.noteOn(300, 0, 62, 100);
+		dispatcher.noteOn(100, 0, 60, 100);
+		dispatcher.noteOff(400, 0, 60);
+		dispatcher.noteOn(200, 0, 61, 100);
+		dispatcher.flush();
+
+		assertEquals(List.of("100 on 60", "200 on 61", "300 on 62", "400 off 60"), drain(Long.MAX_VALUE));
+		assertEquals(0, dispatcher.pending());
+	}
+
+	@Test
+	public void sameInstantPlaysOffThenProgramThenOn()
+	{
+		dispatcher.noteOn(100, 0, 60, 100);
+		dispatcher.programChange(100, 0, 5);
+		dispatcher.noteOff(100, 0, 60);
+		dispatcher.flush();
+
+		assertEquals(List.of("100 off 60", "100 program 5", "100 on 60"), drain(Long.MAX_VALUE));
+	}
+
+	@Test
+	public void drainIncludesLimit()
+	{
+		dispatcher.noteOn(100, 0, 60, 100);
+		dispatcher.noteOn(200, 0, 61, 100);
+		dispatcher.noteOn(300, 0, 62, 100);
+		dispatcher.flush();
+
+		// An event due exactly at the limit (the next tick's downbeat) goes with the batch
+		assertEquals(List.of("100 on 60", "200 on 61"), drain(200));
+		assertEquals(1, dispatcher.pending());
+	}
+
+	@Test
+	public void drainTakesStagedEventsAndLeavesTheRestQueued()
+	{
+		dispatcher.noteOn(100, 0, 60, 100);
+		dispatcher.noteOn(300, 0, 61, 100);
+
+		assertEquals(0, dispatcher.pending());
+		assertEquals(List.of("100 on 60"), drain(200));
+		assertEquals(1, dispatcher.pending());
+		dispatcher.flush();
+		assertEquals(List.of("300 on 61"), drain(Long.MAX_VALUE));
+	}
+
+	@Test
+	public void stagedEventsWaitForFlush()
+	{
+		dispatcher.noteOn(100, 0, 60, 100);
+
+		assertEquals(0, dispatcher.pending());
+		dispatcher.flush();
+		assertEquals(1, dispatcher.pending());
+	}
+
+	@Test
+	public void shiftMovesOnlyLaterEventsAndReorders()
+	{
+		dispatcher.noteOn(100, 0, 60, 100);
+		dispatcher.noteOn(200, 0, 61, 100);
+		dispatcher.noteOn(300, 0, 62, 100);
+		dispatcher.noteOff(150, 0, 60);
+		dispatcher.flush();
+
+		// Everything from 200 on moves 120 earlier, past the note-off at 150
+		dispatcher.shift(200, -120);
+
+		assertEquals(List.of("80 on 61", "100 on 60", "150 off 60", "180 on 62"), drain(Long.MAX_VALUE));
+	}
+
+	@Test
+	public void shiftLaterKeepsHeapOrder()
+	{
+		for (int i = 0; i < 20; i++) dispatcher.noteOn(i * 10L, 0, i, 100);
+		dispatcher.flush();
+
+		dispatcher.shift(100, 1000);
+
+		List<String> drained = drain(Long.MAX_VALUE);
+		assertEquals(20, drained.size());
+		assertEquals("90 on 9", drained.get(9));
+		assertEquals("1100 on 10", drained.get(10));
+		assertEquals("1190 on 19", drained.get(19));
+	}
+
+	@Test
+	public void clearDropsStagedAndQueued()
+	{
+		dispatcher.noteOn(100, 0, 60, 100);
+		dispatcher.flush();
+		dispatcher.noteOn(200, 0, 61, 100);
+
+		dispatcher.clear();
+		dispatcher.flush();
+
+		assertEquals(List.of(), drain(Long.MAX_VALUE));
+	}
+
+	@Test
+	public void keepsChannelsOfTheSecondPort()
+	{
+		dispatcher.noteOn(100, 31, 60, 127);
+		dispatcher.flush();
+
+		List<Integer> channels = new ArrayList<>();
+		List<Integer> velocities = new ArrayList<>();
+		dispatcher.drainUntil(Long.MAX_VALUE, (deadline, kind, channel, key, velocity) -> {
+			channels.add(channel);
+			velocities.add(velocity);
+		});
+		assertEquals(List.of(31), channels);
+		assertEquals(List.of(127), velocities);
+	}
+
+	private List<String> drain(long limit)
+	{
+		List<String> events = new ArrayList<>();
+		dispatcher.drainUntil(limit, (deadline, kind, channel, key, velocity) -> events.add(deadline + " "
+				+ (kind == midisyncdispatcher.NOTE_ON ? "on" : kind == midisyncdispatcher.NOTE_OFF ? "off" : "program") + " " + key));
+		return events;
+	}
+}
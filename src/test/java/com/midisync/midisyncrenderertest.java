@@ -0,0 +1,39 @@
+package com.midisync;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class midisyncrenderertest
+{
+	private static final double TICK_MS = 600.0;
+	// Gervill starts a voice about two control periods (~14 ms) after its timestamp, and an attack
+	// over the previous note's release is found a few ms later than one out of silence
+	private static final double TOLERANCE_MS = 25.0;
+
+	@Test
+	public void renderedOnsetsMatchScheduledFrames() throws Exception
+	{
+		Assume.assumeTrue("Needs " + midisyncgervill.ADD_OPENS, midisyncrenderer.isAvailable());
+
+		// Eight short single notes a beat apart, with a tempo change halfway
+		File midi = new File(getClass().getResource("onsets.mid").toURI());
+		midisynctimeline timeline = midisyncplugin.loadMidi(midi).view(4, TICK_MS * 1000);
+		int[] volumes = new int[midisyncchannelplan.MAX_CHANNELS];
+		Arrays.fill(volumes, 100);
+		midisyncrenderer renderer = new midisyncrenderer(null, midisyncrenderer.DEFAULT_FORMAT, false, volumes);
+
+		midisyncrenderreport report = renderer.render(timeline, TICK_MS, OutputStream.nullOutputStream(), null);
+
+		assertEquals(8, report.getOnsetFrames().length);
+		assertEquals(8, report.getComparedOnsets());
+		assertEquals(report.toString(), 0, report.getMissedOnsets());
+		assertTrue(report.toString(), report.getMaxOnsetDeviationMs() <= TOLERANCE_MS);
+	}
+}
@@ -0,0 +1,100 @@
+package com.midisync;
+
+import org.junit.Test;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.Track;
+
+import static org.junit.Assert.assertEquals;
+
+public class midisynctempomaptest
+{
+	private static final double EPSILON = 1e-6;
+
+	@Test
+	public void defaultsTo120BpmWithoutTempoEvents() throws Exception
+	{
+		Sequence sequence = new Sequence(Sequence.PPQ, 480);
+		sequence.createTrack();
+
+		midisynctempomap map = midisynctempomap.of(sequence);
+
+		assertEquals(1, map.segments());
+		assertEquals(500_000.0, map.micros(480), EPSILON);
+	}
+
+	@Test
+	public void tempoChangeStartsNewSegment() throws Exception
+	{
+		Sequence sequence = new Sequence(Sequence.PPQ, 480);
+		Track track = sequence.createTrack();
+		track.add(tempo(960, 250_000));
+
+		midisynctempomap map = midisynctempomap.of(sequence);
+
+		assertEquals(2, map.segments());
+		assertEquals(960, map.segmentTick(1));
+		assertEquals(1_000_000.0, map.micros(960), EPSILON);
+		assertEquals(1_250_000.0, map.micros(1440), EPSILON);
+	}
+
+	@Test
+	public void lastTempoAtSameTickWins() throws Exception
+	{
+		Sequence sequence = new Sequence(Sequence.PPQ, 480);
+		Track track = sequence.createTrack();
+		track.add(tempo(480, 1_000_000));
+		track.add(tempo(480, 250_000));
+
+		midisynctempomap map = midisynctempomap.of(sequence);
+
+		assertEquals(2, map.segments());
+		assertEquals(750_000.0, map.micros(960), EPSILON);
+	}
+
+	@Test
+	public void laterTrackWinsAtSameTick() throws Exception
+	{
+		Sequence sequence = new Sequence(Sequence.PPQ, 480);
+		sequence.createTrack().add(tempo(0, 1_000_000));
+		sequence.createTrack().add(tempo(0, 250_000));
+
+		midisynctempomap map = midisynctempomap.of(sequence);
+
+		assertEquals(1, map.segments());
+		assertEquals(250_000.0, map.micros(480), EPSILON);
+	}
+
+	@Test
+	public void repeatedTempoDoesNotSplitSegment() throws Exception
+	{
+		Sequence sequence = new Sequence(Sequence.PPQ, 480);
+		Track track = sequence.createTrack();
+		track.add(tempo(480, 500_000));
+		track.add(tempo(960, 500_000));
+
+		assertEquals(1, midisynctempomap.of(sequence).segments());
+	}
+
+	@Test
+	public void smpteDivisionHasFixedTickLength() throws Exception
+	{
+		// 25 frames per second, 40 ticks per frame: 1 ms per tick, whatever the tempo events say
+		Sequence sequence = new Sequence(Sequence.SMPTE_25, 40);
+		sequence.createTrack().add(tempo(100, 250_000));
+
+		midisynctempomap map = midisynctempomap.of(sequence);
+
+		assertEquals(1, map.segments());
+		assertEquals(1_000_000.0, map.micros(1000), EPSILON);
+	}
+
+	private static MidiEvent tempo(long tick, int microsPerQuarter) throws InvalidMidiDataException
+	{
+		byte[] data = { (byte) (microsPerQuarter >> 16), (byte) (microsPerQuarter >> 8), (byte) microsPerQuarter };
+		return new MidiEvent(new MetaMessage(0x51, data, data.length), tick);
+	}
+}
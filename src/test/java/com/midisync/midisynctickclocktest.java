@@ -0,0 +1,115 @@
+package com.midisync;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class midisynctickclocktest
+{
+	private static final long MS = 1_000_000L;
+	private static final double TICK_MS = 600.0;
+
+	private final midisynctickclock clock = new midisynctickclock();
+
+	@Test
+	public void firstTickStartsAtItsArrival()
+	{
+		assertEquals(5 * MS, clock.onTick(5 * MS, TICK_MS));
+		assertEquals(TICK_MS, clock.getPeriodMs(), 1e-9);
+	}
+
+	@Test
+	public void jitterIsFiltered()
+	{
+		clock.onTick(0, TICK_MS);
+
+		// 16 ms late: the start moves an eighth of the way towards it
+		assertEquals(602 * MS, clock.onTick(616 * MS, TICK_MS));
+		assertFalse(clock.isResync());
+	}
+
+	@Test
+	public void periodFollowsSlowerTicks()
+	{
+		long arrival = 0;
+		for (int i = 0; i < 500; i++)
+		{
+			clock.onTick(arrival, TICK_MS);
+			arrival += 610 * MS;
+		}
+
+		assertEquals(610.0, clock.getPeriodMs(), 1.0);
+	}
+
+	@Test
+	public void periodStaysWithinBounds()
+	{
+		long arrival = 0;
+		for (int i = 0; i < 500; i++)
+		{
+			clock.onTick(arrival, TICK_MS);
+			arrival += 850 * MS; // late, but never late enough to count as a stall once the period has grown
+		}
+
+		assertEquals(TICK_MS * 1.25, clock.getPeriodMs(), 1e-6);
+	}
+
+	@Test
+	public void stallRestartsAtArrival()
+	{
+		clock.onTick(0, TICK_MS);
+
+		assertEquals(1500 * MS, clock.onTick(1500 * MS, TICK_MS));
+		assertEquals(1, clock.getStalls());
+		assertFalse(clock.isResync());
+	}
+
+	@Test
+	public void burstQueuesTicksAPeriodApartUntilBacklogIsFull()
+	{
+		clock.onTick(0, TICK_MS);
+		clock.onTick(600 * MS, TICK_MS);
+
+		assertEquals(1200 * MS, clock.onTick(650 * MS, TICK_MS));
+		assertFalse(clock.isResync());
+		assertEquals(1800 * MS, clock.onTick(700 * MS, TICK_MS));
+		assertFalse(clock.isResync());
+
+		// A third early tick would queue more than two periods ahead
+		assertEquals(750 * MS, clock.onTick(750 * MS, TICK_MS));
+		assertTrue(clock.isResync());
+		assertEquals(3, clock.getBursts());
+
+		clock.onTick(1350 * MS, TICK_MS);
+		assertFalse(clock.isResync());
+	}
+
+	@Test
+	public void resyncKeepsMeasuredPeriod()
+	{
+		long arrival = 0;
+		for (int i = 0; i < 500; i++)
+		{
+			clock.onTick(arrival, TICK_MS);
+			arrival += 610 * MS;
+		}
+
+		// Four ticks at once: the fourth would queue too far ahead and restarts the clock, on the cadence measured so far
+		for (int i = 0; i < 3; i++) clock.onTick(arrival, TICK_MS);
+		assertEquals(arrival, clock.onTick(arrival, TICK_MS));
+		assertTrue(clock.isResync());
+		assertEquals(610.0, clock.getPeriodMs(), 1.0);
+	}
+
+	@Test
+	public void newTickLengthStartsOver()
+	{
+		clock.onTick(0, TICK_MS);
+
+		assertEquals(100 * MS, clock.onTick(100 * MS, 300.0));
+		assertEquals(300.0, clock.getPeriodMs(), 1e-9);
+		assertEquals(0, clock.getBursts());
+	}
+}
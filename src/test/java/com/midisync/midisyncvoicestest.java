@@ -0,0 +1,136 @@
+package com.midisync;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class midisyncvoicestest
+{
+	private final List<String> sent = new ArrayList<>();
+	private final midisyncvoices.Output out = new midisyncvoices.Output()
+	{
+		@Override
+		public void noteOn(int channel, int key, int velocity)
+		{
+			sent.add("on " + channel + "/" + key);
+		}
+
+		@Override
+		public void noteOff(int channel, int key)
+		{
+			sent.add("off " + channel + "/" + key);
+		}
+	};
+
+	@Test
+	public void retriggerKeepsOneVoiceUntilLastNoteOff()
+	{
+		midisyncvoices voices = new midisyncvoices(8);
+		voices.noteOn(0, 60, 100, out);
+		voices.noteOn(0, 60, 90, out);
+
+		assertEquals(1, voices.getActive());
+		assertEquals(List.of("on 0/60", "off 0/60", "on 0/60"), sent);
+
+		// The first note's off doesn't cut the retriggered note short
+		sent.clear();
+		voices.noteOff(0, 60, out);
+		assertEquals(List.of(), sent);
+		assertEquals(1, voices.getActive());
+
+		voices.noteOff(0, 60, out);
+		assertEquals(List.of("off 0/60"), sent);
+		assertEquals(0, voices.getActive());
+	}
+
+	@Test
+	public void stealsQuietestVoice()
+	{
+		midisyncvoices voices = new midisyncvoices(2);
+		voices.noteOn(0, 60, 100, out);
+		voices.noteOn(1, 62, 40, out);
+		sent.clear();
+
+		voices.noteOn(2, 64, 80, out);
+
+		assertEquals(List.of("off 1/62", "on 2/64"), sent);
+		assertEquals(1, voices.getStolen());
+		assertEquals(2, voices.getActive());
+	}
+
+	@Test
+	public void stealsOldestAmongEquallyQuiet()
+	{
+		midisyncvoices voices = new midisyncvoices(2);
+		voices.noteOn(0, 60, 70, out);
+		voices.noteOn(1, 62, 70, out);
+		sent.clear();
+
+		voices.noteOn(2, 64, 70, out);
+
+		assertEquals(List.of("off 0/60", "on 2/64"), sent);
+	}
+
+	@Test
+	public void stolenNotesOffIsSwallowed()
+	{
+		midisyncvoices voices = new midisyncvoices(1);
+		voices.noteOn(0, 60, 50, out);
+		voices.noteOn(1, 62, 100, out);
+		voices.noteOn(0, 60, 127, out); // steals 1/62 and takes key 60 again
+		sent.clear();
+
+		// The first note-off belongs to the stolen note, not to the one holding the key now
+		voices.noteOff(0, 60, out);
+		assertEquals(List.of(), sent);
+		voices.noteOff(0, 60, out);
+		assertEquals(List.of("off 0/60"), sent);
+	}
+
+	@Test
+	public void percussionIsNeverStolen()
+	{
+		midisyncvoices voices = new midisyncvoices(2);
+		voices.noteOn(9, 36, 10, out);
+		voices.noteOn(0, 60, 100, out);
+		sent.clear();
+
+		voices.noteOn(1, 62, 100, out);
+
+		assertEquals(List.of("off 0/60", "on 1/62"), sent);
+		assertEquals(1, voices.getActive(9));
+	}
+
+	@Test
+	public void noteIsDroppedWhenOnlyPercussionIsLeft()
+	{
+		midisyncvoices voices = new midisyncvoices(1);
+		voices.noteOn(9, 36, 10, out);
+		sent.clear();
+
+		voices.noteOn(0, 60, 100, out);
+		voices.noteOff(0, 60, out);
+
+		assertEquals(List.of(), sent);
+		assertEquals(1, voices.getDropped());
+		assertEquals(1, voices.getActive(9));
+	}
+
+	@Test
+	public void resetForgetsEverything()
+	{
+		midisyncvoices voices = new midisyncvoices(1);
+		voices.noteOn(0, 60, 50, out);
+		voices.noteOn(1, 62, 100, out);
+
+		voices.reset();
+		sent.clear();
+		voices.noteOn(0, 60, 50, out);
+		voices.noteOff(0, 60, out);
+
+		assertEquals(List.of("on 0/60", "off 0/60"), sent);
+	}
+}